@@ -10,22 +10,62 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.ly2xxx.sos.model.EmergencyContact;
+import com.ly2xxx.sos.util.InputValidator;
 
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Objects;
 
-public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyContactAdapter.ViewHolder> {
+/**
+ * Lists countries and their emergency numbers. New lists are handed over with
+ * {@link #submitList(List)}: the differences are worked out on a background thread and only
+ * the rows that actually changed are rebound, so filtering keeps item animations and doesn't
+ * redraw every visible row. Submitted lists must not be modified afterwards.
+ */
+public class EmergencyContactAdapter extends ListAdapter<EmergencyContactsActivity.CountryEmergencyContact, EmergencyContactAdapter.ViewHolder> {
     
     private static final String TAG = "EmergencyContactAdapter";
-    private static final Pattern PHONE_VALIDATION_PATTERN = Pattern.compile("^\\+?[0-9\\s\\-\\(\\)]{3,20}$");
     
-    private final List<EmergencyContactsActivity.CountryEmergencyContact> contacts;
+    // Rows show police, ambulance, fire and general numbers, in that order
+    private static final int SERVICE_COUNT = 4;
+    private static final String[] SERVICE_LABELS = {"🚔 Police", "🚑 Ambulance", "🚒 Fire", "🆘 Emergency"};
+    private static final String[] SERVICE_TYPES = {"Police", "Ambulance", "Fire", "Emergency"};
+    
+    // Rows are the same country if their keys match; contacts are immutable, so equal
+    // contents means nothing on screen would change
+    private static final DiffUtil.ItemCallback<EmergencyContactsActivity.CountryEmergencyContact> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<EmergencyContactsActivity.CountryEmergencyContact>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull EmergencyContactsActivity.CountryEmergencyContact oldItem,
+                                               @NonNull EmergencyContactsActivity.CountryEmergencyContact newItem) {
+                    return Objects.equals(oldItem.getCountryKey(), newItem.getCountryKey());
+                }
+                
+                @Override
+                public boolean areContentsTheSame(@NonNull EmergencyContactsActivity.CountryEmergencyContact oldItem,
+                                                  @NonNull EmergencyContactsActivity.CountryEmergencyContact newItem) {
+                    return Objects.equals(oldItem.getCountryName(), newItem.getCountryName())
+                            && Objects.equals(oldItem.getEmergencyContact(), newItem.getEmergencyContact());
+                }
+            };
+
+    // One listener for every number on every row; the number to dial is in the view's tag
+    private final View.OnClickListener callListener = v -> {
+        Object tag = v.getTag();
+        if (tag instanceof Call) {
+            makeCall(v, ((Call) tag).number, ((Call) tag).serviceType);
+        }
+    };
 
     public EmergencyContactAdapter(List<EmergencyContactsActivity.CountryEmergencyContact> contacts) {
-        this.contacts = contacts;
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+        // There is nothing to diff the first list against, so it is shown straight away
+        submitList(contacts);
     }
 
     @NonNull
@@ -33,13 +73,21 @@ public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyConta
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.item_emergency_contact, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        for (int service = 0; service < SERVICE_COUNT; service++) {
+            TextView numberView = holder.getNumberView(service);
+            if (numberView != null) {
+                numberView.setOnClickListener(callListener);
+            }
+        }
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        if (contacts == null || position < 0 || position >= contacts.size()) {
-            Log.e(TAG, "Invalid position or null contacts list");
+        List<EmergencyContactsActivity.CountryEmergencyContact> contacts = getCurrentList();
+        if (position < 0 || position >= contacts.size()) {
+            Log.e(TAG, "Invalid position: " + position);
             return;
         }
         
@@ -49,101 +97,45 @@ public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyConta
             return;
         }
         
-        String countryName = countryContact.getCountryName();
-        EmergencyContact contact = countryContact.getEmergencyContact();
-        
-        if (contact == null) {
-            Log.e(TAG, "Null emergency contact for country: " + countryName);
+        RowDisplay row = countryContact.getRowDisplay();
+        if (row == null) {
+            Log.e(TAG, "Null emergency contact for country: " + countryContact.getCountryName());
             return;
         }
         
-        // Safely set country name
+        // Everything was validated and formatted when the row was built; this only copies it
         if (holder.countryName != null) {
-            holder.countryName.setText(sanitizeDisplayText(countryName));
-        }
-        
-        // Safely set emergency numbers with validation
-        setEmergencyNumber(holder.policeNumber, contact.getPolice(), "🚔 Police", "Police");
-        setEmergencyNumber(holder.ambulanceNumber, contact.getAmbulance(), "🚑 Ambulance", "Ambulance");
-        setEmergencyNumber(holder.fireNumber, contact.getFire(), "🚒 Fire", "Fire");
-        setEmergencyNumber(holder.generalNumber, contact.getGeneral(), "🆘 Emergency", "Emergency");
-        
-        // Set click listeners with validation
-        if (holder.policeNumber != null) {
-            holder.policeNumber.setOnClickListener(v -> makeCall(v, contact.getPolice(), "Police"));
+            holder.countryName.setText(row.countryName);
         }
-        if (holder.ambulanceNumber != null) {
-            holder.ambulanceNumber.setOnClickListener(v -> makeCall(v, contact.getAmbulance(), "Ambulance"));
-        }
-        if (holder.fireNumber != null) {
-            holder.fireNumber.setOnClickListener(v -> makeCall(v, contact.getFire(), "Fire"));
-        }
-        if (holder.generalNumber != null) {
-            holder.generalNumber.setOnClickListener(v -> makeCall(v, contact.getGeneral(), "Emergency"));
+        for (int service = 0; service < SERVICE_COUNT; service++) {
+            TextView numberView = holder.getNumberView(service);
+            if (numberView == null) {
+                continue;
+            }
+            numberView.setText(row.displayTexts[service]);
+            numberView.setEnabled(row.valid[service]);
+            numberView.setTag(row.calls[service]);
         }
     }
 
     @Override
-    public int getItemCount() {
-        return contacts != null ? contacts.size() : 0;
-    }
-
-    /**
-     * Safely set emergency number text with validation
-     */
-    private void setEmergencyNumber(TextView textView, String number, String prefix, String serviceType) {
-        if (textView == null) {
-            Log.w(TAG, "TextView is null for " + serviceType);
-            return;
-        }
-        
-        String displayText;
-        if (isValidEmergencyNumber(number)) {
-            displayText = prefix + " " + sanitizeDisplayText(number);
-        } else {
-            displayText = prefix + " N/A";
-            textView.setEnabled(false); // Disable if no valid number
-        }
-        
-        textView.setText(displayText);
+    public long getItemId(int position) {
+        EmergencyContactsActivity.CountryEmergencyContact countryContact = getItem(position);
+        return countryContact != null ? countryContact.getStableId() : RecyclerView.NO_ID;
     }
 
     /**
      * Validate emergency phone number
      */
-    private boolean isValidEmergencyNumber(String number) {
-        if (number == null || number.trim().isEmpty() || "N/A".equals(number)) {
-            return false;
-        }
-        
-        String trimmed = number.trim();
-        
-        // Check length constraints
-        if (trimmed.length() < 3 || trimmed.length() > 20) {
-            return false;
-        }
-        
-        // Validate against pattern
-        return PHONE_VALIDATION_PATTERN.matcher(trimmed).matches();
+    private static boolean isValidEmergencyNumber(String number) {
+        return InputValidator.isValidEmergencyNumber(number);
     }
 
     /**
      * Sanitize text for display to prevent UI issues
      */
-    private String sanitizeDisplayText(String text) {
-        if (text == null) {
-            return "";
-        }
-        
-        // Remove any potential control characters and limit length
-        String sanitized = text.replaceAll("[\\p{Cntrl}&&[^\r\n\t]]", "").trim();
-        
-        // Limit display text length to prevent UI issues
-        if (sanitized.length() > 100) {
-            sanitized = sanitized.substring(0, 100) + "...";
-        }
-        
-        return sanitized;
+    private static String sanitizeDisplayText(String text) {
+        return InputValidator.sanitizeDisplayText(text);
     }
 
     /**
@@ -209,22 +201,41 @@ public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyConta
      * Sanitize phone number specifically for tel: intent
      */
     private String sanitizePhoneNumberForIntent(String number) {
-        if (number == null || number.trim().isEmpty()) {
-            return null;
-        }
-        
-        String cleaned = number.trim();
-        
-        // Remove all characters except digits, +, -, (, ), and spaces
-        cleaned = cleaned.replaceAll("[^\\d\\+\\-\\(\\)\\s]", "");
+        return InputValidator.sanitizePhoneNumberForIntent(number);
+    }
+
+    /**
+     * Everything a row shows, validated and formatted once when the contacts load so that
+     * binding a row is just copying fields into its views.
+     */
+    static final class RowDisplay {
+        final String countryName;
+        final String[] displayTexts = new String[SERVICE_COUNT];
+        final boolean[] valid = new boolean[SERVICE_COUNT];
+        final Call[] calls = new Call[SERVICE_COUNT];
         
-        // Validate cleaned number
-        if (!Pattern.matches("^\\+?[\\d\\s\\-\\(\\)]{3,20}$", cleaned)) {
-            return null;
+        RowDisplay(String countryName, EmergencyContact contact) {
+            this.countryName = sanitizeDisplayText(countryName);
+            String[] numbers = {contact.getPolice(), contact.getAmbulance(), contact.getFire(), contact.getGeneral()};
+            for (int service = 0; service < SERVICE_COUNT; service++) {
+                valid[service] = isValidEmergencyNumber(numbers[service]);
+                displayTexts[service] = valid[service]
+                        ? SERVICE_LABELS[service] + " " + sanitizeDisplayText(numbers[service])
+                        : SERVICE_LABELS[service] + " N/A";
+                calls[service] = new Call(numbers[service], SERVICE_TYPES[service]);
+            }
         }
+    }
+    
+    // Tag on a number view: what its click dials
+    static final class Call {
+        final String number;
+        final String serviceType;
         
-        // For tel: URIs, we can keep formatting characters
-        return cleaned;
+        Call(String number, String serviceType) {
+            this.number = number;
+            this.serviceType = serviceType;
+        }
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
@@ -254,5 +265,14 @@ public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyConta
                 Log.e(TAG, "Error initializing ViewHolder", e);
             }
         }
+        
+        TextView getNumberView(int service) {
+            switch (service) {
+                case 0: return policeNumber;
+                case 1: return ambulanceNumber;
+                case 2: return fireNumber;
+                default: return generalNumber;
+            }
+        }
     }
 }
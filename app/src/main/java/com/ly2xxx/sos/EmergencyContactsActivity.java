@@ -1,7 +1,8 @@
 package com.ly2xxx.sos;
 
-import android.content.res.AssetManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
@@ -15,28 +16,39 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.ly2xxx.sos.model.EmergencyContact;
+import com.ly2xxx.sos.util.CountryCodes;
+import com.ly2xxx.sos.util.CountrySearchIndex;
+import com.ly2xxx.sos.util.EmergencyContactsRepository;
+import com.ly2xxx.sos.util.InputValidator;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public class EmergencyContactsActivity extends AppCompatActivity {
     
     private static final String TAG = "EmergencyContactsActivity";
-    private static final int MAX_SEARCH_LENGTH = 100; // Prevent excessive search queries
-    private static final Pattern SAFE_SEARCH_PATTERN = Pattern.compile("^[a-zA-Z0-9\\s\\-_]+$");
+    private static final long SEARCH_DEBOUNCE_MS = 150; // Wait for a pause in typing
     
     private RecyclerView recyclerView;
     private EditText searchEditText;
     private EmergencyContactAdapter adapter;
     private List<CountryEmergencyContact> allContacts;
     private List<CountryEmergencyContact> filteredContacts;
+    
+    // Searches run on their own thread; only the latest query's result is ever shown
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private Runnable pendingDebounce;
+    private Future<?> pendingSearch;
+    private volatile int searchGeneration;
+    // Set once the contacts are shown. Its search index is built on first use, on the search
+    // thread; positions refer to allContacts.
+    private EmergencyContactsRepository.Snapshot contactsSnapshot;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -95,7 +107,7 @@ public class EmergencyContactsActivity extends AppCompatActivity {
             }
             
             allContacts = new ArrayList<>();
-            filteredContacts = new ArrayList<>();
+            filteredContacts = Collections.emptyList();
             
         } catch (Exception e) {
             Log.e(TAG, "Error initializing views", e);
@@ -106,135 +118,50 @@ public class EmergencyContactsActivity extends AppCompatActivity {
 
     private void loadEmergencyContacts() {
         try {
-            AssetManager assetManager = getAssets();
-            
-            // Use try-with-resources for proper resource management
-            try (InputStream inputStream = assetManager.open("emergency_contacts.json")) {
-                
-                byte[] buffer = new byte[inputStream.available()];
-                int bytesRead = inputStream.read(buffer);
-                
-                if (bytesRead == -1) {
-                    throw new IOException("Failed to read emergency contacts file");
-                }
-                
-                String jsonString = new String(buffer, "UTF-8");
-                
-                // Validate JSON is not empty or null
-                if (jsonString.trim().isEmpty()) {
-                    throw new JSONException("Emergency contacts file is empty");
-                }
-                
-                JSONObject jsonObject = new JSONObject(jsonString);
-                
-                Iterator<String> keys = jsonObject.keys();
-                while (keys.hasNext()) {
-                    String countryKey = keys.next();
-                    
-                    // Validate country key
-                    if (countryKey == null || countryKey.trim().isEmpty()) {
-                        Log.w(TAG, "Skipping empty country key");
-                        continue;
-                    }
-                    
-                    JSONObject contactData = jsonObject.getJSONObject(countryKey);
-                    
-                    // Sanitize and validate country name
-                    String countryName = sanitizeCountryName(countryKey);
-                    if (countryName == null) {
-                        Log.w(TAG, "Skipping invalid country: " + countryKey);
-                        continue;
-                    }
-                    
-                    // Validate and sanitize emergency numbers
-                    String police = sanitizePhoneNumber(contactData.optString("police", ""));
-                    String ambulance = sanitizePhoneNumber(contactData.optString("ambulance", ""));
-                    String fire = sanitizePhoneNumber(contactData.optString("fire", ""));
-                    String general = sanitizePhoneNumber(contactData.optString("general", ""));
-                    
-                    // Only add if at least one emergency number is valid
-                    if (police != null || ambulance != null || fire != null || general != null) {
-                        EmergencyContact contact = new EmergencyContact(
-                            police != null ? police : "N/A", 
-                            ambulance != null ? ambulance : "N/A", 
-                            fire != null ? fire : "N/A", 
-                            general != null ? general : "N/A"
-                        );
-                        CountryEmergencyContact countryContact = new CountryEmergencyContact(countryName, contact);
-                        allContacts.add(countryContact);
-                    } else {
-                        Log.w(TAG, "No valid emergency numbers for country: " + countryName);
+            // Shared with the main screen, which has usually loaded it already
+            EmergencyContactsRepository repository = EmergencyContactsRepository.getInstance(this);
+            EmergencyContactsRepository.Snapshot snapshot = repository.peekSnapshot();
+            if (snapshot != null) {
+                showEmergencyContacts(snapshot);
+            } else {
+                repository.whenLoaded(loaded -> {
+                    if (!isFinishing()) {
+                        showEmergencyContacts(loaded);
                     }
-                }
-                
-                // Sort countries alphabetically
-                allContacts.sort((c1, c2) -> c1.getCountryName().compareToIgnoreCase(c2.getCountryName()));
-                filteredContacts.addAll(allContacts);
-                
-                Log.i(TAG, "Loaded " + allContacts.size() + " countries with emergency contacts");
-                
+                });
             }
-            
-        } catch (IOException e) {
-            Log.e(TAG, "IO Error loading emergency contacts", e);
-            Toast.makeText(this, "Error reading emergency contacts file", Toast.LENGTH_LONG).show();
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON Error parsing emergency contacts", e);
-            Toast.makeText(this, "Error parsing emergency contacts data", Toast.LENGTH_LONG).show();
         } catch (Exception e) {
             Log.e(TAG, "Unexpected error loading emergency contacts", e);
             Toast.makeText(this, "Unexpected error loading emergency contacts", Toast.LENGTH_LONG).show();
         }
     }
 
-    /**
-     * Sanitize country name to prevent injection attacks
-     */
-    private String sanitizeCountryName(String countryKey) {
-        if (countryKey == null || countryKey.trim().isEmpty()) {
-            return null;
-        }
-        
-        // Replace underscores with spaces and validate characters
-        String countryName = countryKey.replace("_", " ").trim();
-        
-        // Check for valid characters only (letters, spaces, hyphens)
-        if (!Pattern.matches("^[a-zA-Z\\s\\-]+$", countryName)) {
-            return null;
-        }
-        
-        // Limit length to prevent excessive memory usage
-        if (countryName.length() > 50) {
-            return countryName.substring(0, 50);
+    private void showEmergencyContacts(EmergencyContactsRepository.Snapshot snapshot) {
+        if (!snapshot.isLoaded()) {
+            Toast.makeText(this, "Error reading emergency contacts file", Toast.LENGTH_LONG).show();
+            return;
         }
         
-        return countryName;
-    }
-
-    /**
-     * Sanitize and validate phone numbers
-     */
-    private String sanitizePhoneNumber(String phoneNumber) {
-        if (phoneNumber == null || phoneNumber.trim().isEmpty()) {
-            return null;
+        // Entries are already sanitised and sorted alphabetically. The list is replaced, never
+        // modified, so a search running in the background keeps a consistent view.
+        List<EmergencyContactsRepository.Entry> entries = snapshot.getEntries();
+        List<CountryEmergencyContact> contacts = new ArrayList<>(entries.size());
+        for (EmergencyContactsRepository.Entry entry : entries) {
+            contacts.add(new CountryEmergencyContact(entry.getKey(), entry.getDisplayName(), entry.getContact()));
         }
-        
-        String cleaned = phoneNumber.trim();
-        
-        // Allow only digits, spaces, +, -, (, )
-        if (!Pattern.matches("^[\\d\\s\\+\\-\\(\\)]+$", cleaned)) {
-            return null;
+        allContacts = Collections.unmodifiableList(contacts);
+        contactsSnapshot = snapshot;
+        try {
+            // Build the index before the first keystroke needs it
+            searchExecutor.execute(snapshot::getSearchIndex);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Search index build rejected", e);
         }
         
-        // Remove all non-digit characters except +
-        String digitsOnly = cleaned.replaceAll("[^\\d\\+]", "");
-        
-        // Validate phone number format (3-15 digits, optionally starting with +)
-        if (!Pattern.matches("^\\+?\\d{3,15}$", digitsOnly)) {
-            return null;
-        }
+        // Re-apply whatever was typed while the list was loading
+        scheduleSearch(searchEditText != null ? searchEditText.getText().toString() : "");
         
-        return cleaned; // Return original format for display
+        Log.i(TAG, "Loaded " + allContacts.size() + " countries with emergency contacts");
     }
 
     private void setupRecyclerView() {
@@ -262,7 +189,7 @@ public class EmergencyContactsActivity extends AppCompatActivity {
                 @Override
                 public void onTextChanged(CharSequence s, int start, int before, int count) {
                     String query = s != null ? s.toString() : "";
-                    filterContacts(query);
+                    scheduleSearch(query);
                 }
 
                 @Override
@@ -271,31 +198,80 @@ public class EmergencyContactsActivity extends AppCompatActivity {
         }
     }
 
-    private void filterContacts(String query) {
-        if (filteredContacts == null || allContacts == null) {
+    /**
+     * Supersedes any pending or running search. An empty query shows everything at once;
+     * anything else is searched on the background thread after a short pause in typing.
+     */
+    private void scheduleSearch(String query) {
+        int generation = ++searchGeneration;
+        if (pendingDebounce != null) {
+            mainHandler.removeCallbacks(pendingDebounce);
+            pendingDebounce = null;
+        }
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
+            pendingSearch = null;
+        }
+        
+        if (query == null || query.trim().isEmpty()) {
+            showSearchResult(generation, null);
             return;
         }
         
-        filteredContacts.clear();
+        pendingDebounce = () -> {
+            pendingDebounce = null;
+            startSearch(generation, query);
+        };
+        mainHandler.postDelayed(pendingDebounce, SEARCH_DEBOUNCE_MS);
+    }
+
+    private void startSearch(int generation, String query) {
+        EmergencyContactsRepository.Snapshot snapshot = contactsSnapshot;
+        if (snapshot == null) {
+            // Still loading; the search is re-run once the contacts arrive
+            return;
+        }
         
-        if (query == null || query.trim().isEmpty()) {
-            filteredContacts.addAll(allContacts);
-        } else {
-            // Sanitize search query
-            String sanitizedQuery = sanitizeSearchQuery(query);
-            if (sanitizedQuery != null) {
-                String lowerCaseQuery = sanitizedQuery.toLowerCase().trim();
-                for (CountryEmergencyContact contact : allContacts) {
-                    if (contact != null && contact.getCountryName() != null &&
-                        contact.getCountryName().toLowerCase().contains(lowerCaseQuery)) {
-                        filteredContacts.add(contact);
-                    }
+        try {
+            pendingSearch = searchExecutor.submit(() -> {
+                long startNanos = System.nanoTime();
+                String sanitizedQuery = sanitizeSearchQuery(query);
+                CountrySearchIndex index = snapshot.getSearchIndex();
+                int[] matches = sanitizedQuery != null ? index.search(sanitizedQuery) : new int[0];
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Search for '" + sanitizedQuery + "' found " + matches.length + " in "
+                            + (System.nanoTime() - startNanos) / 1000 + " µs");
                 }
+                if (generation == searchGeneration) {
+                    mainHandler.post(() -> showSearchResult(generation, matches));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The activity is being destroyed
+            Log.w(TAG, "Search rejected", e);
+        }
+    }
+
+    // matches == null shows every contact
+    private void showSearchResult(int generation, int[] matches) {
+        if (generation != searchGeneration || filteredContacts == null || allContacts == null) {
+            return;
+        }
+        
+        // A fresh list each time: the adapter diffs it against the shown one in the background
+        List<CountryEmergencyContact> shown;
+        if (matches == null) {
+            shown = allContacts;
+        } else {
+            shown = new ArrayList<>(matches.length);
+            for (int position : matches) {
+                shown.add(allContacts.get(position));
             }
         }
+        filteredContacts = shown;
         
         if (adapter != null) {
-            adapter.notifyDataSetChanged();
+            adapter.submitList(shown);
         }
     }
 
@@ -303,24 +279,14 @@ public class EmergencyContactsActivity extends AppCompatActivity {
      * Sanitize search query to prevent injection attacks
      */
     private String sanitizeSearchQuery(String query) {
-        if (query == null || query.trim().isEmpty()) {
-            return null;
-        }
-        
-        String trimmed = query.trim();
-        
-        // Limit search query length
-        if (trimmed.length() > MAX_SEARCH_LENGTH) {
-            trimmed = trimmed.substring(0, MAX_SEARCH_LENGTH);
-        }
-        
-        // Allow only safe characters for search
-        if (!SAFE_SEARCH_PATTERN.matcher(trimmed).matches()) {
-            Log.w(TAG, "Invalid characters in search query, filtering them out");
-            trimmed = trimmed.replaceAll("[^a-zA-Z0-9\\s\\-_]", "");
-        }
-        
-        return trimmed.isEmpty() ? null : trimmed;
+        return InputValidator.sanitizeSearchQuery(query);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacksAndMessages(null);
+        searchExecutor.shutdownNow();
     }
 
     @Override
@@ -334,12 +300,42 @@ public class EmergencyContactsActivity extends AppCompatActivity {
 
     // Inner class to hold country name and emergency contact
     public static class CountryEmergencyContact {
+        private final String countryKey;
         private final String countryName;
         private final EmergencyContact emergencyContact;
+        private final long stableId;
+        private final EmergencyContactAdapter.RowDisplay rowDisplay;
 
         public CountryEmergencyContact(String countryName, EmergencyContact emergencyContact) {
+            this(countryName, countryName, emergencyContact);
+        }
+
+        public CountryEmergencyContact(String countryKey, String countryName, EmergencyContact emergencyContact) {
+            this.countryKey = countryKey;
             this.countryName = countryName;
             this.emergencyContact = emergencyContact;
+            this.stableId = stableId(countryKey);
+            this.rowDisplay = emergencyContact != null
+                    ? new EmergencyContactAdapter.RowDisplay(countryName, emergencyContact) : null;
+        }
+
+        // The country id where there is one; other keys get ids above every country id
+        private static long stableId(String countryKey) {
+            if (countryKey == null) {
+                return RecyclerView.NO_ID;
+            }
+            int countryId = CountryCodes.indexOfKey(countryKey);
+            if (countryId != CountryCodes.NOT_FOUND) {
+                return countryId;
+            }
+            return (1L << 32) + (countryKey.hashCode() & 0xffffffffL);
+        }
+
+        /**
+         * Key in emergency_contacts.json, such as "United_Kingdom".
+         */
+        public String getCountryKey() {
+            return countryKey;
         }
 
         public String getCountryName() {
@@ -349,5 +345,17 @@ public class EmergencyContactsActivity extends AppCompatActivity {
         public EmergencyContact getEmergencyContact() {
             return emergencyContact;
         }
+
+        /**
+         * RecyclerView item id, derived from the country key.
+         */
+        public long getStableId() {
+            return stableId;
+        }
+
+        // Null when there is no emergency contact to show
+        EmergencyContactAdapter.RowDisplay getRowDisplay() {
+            return rowDisplay;
+        }
     }
 }
@@ -8,6 +8,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -23,6 +24,18 @@ import com.ly2xxx.sos.model.EmergencyContact;
 import com.ly2xxx.sos.service.LocationService;
 import com.ly2xxx.sos.util.CountryDetector;
 import com.ly2xxx.sos.util.EmergencyContactsManager;
+import com.ly2xxx.sos.util.LastKnownLocationStore;
+import com.ly2xxx.sos.util.SosTrace;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity implements LocationService.LocationListener {
     
@@ -35,6 +48,7 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
 
     private TextView tvLocation;
     private TextView tvCountry;
+    private TextView tvNearbyCountry;
     private Button btnPolice;
     private Button btnAmbulance;
     private Button btnFire;
@@ -45,6 +59,15 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
     private LocationService locationService;
     private EmergencyContactsManager contactsManager;
     private CountryDetector countryDetector;
+    private LastKnownLocationStore lastKnownStore;
+    
+    // One detection at a time, with room for just the latest fix waiting behind it
+    private final ExecutorService detectionExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(1), r -> new Thread(r, "CountryDetection"),
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+    // Bumped on the main thread for every fix; results carry the value they were started with
+    private volatile int detectionSequence;
+    private int appliedDetectionSequence;
     
     private String currentCountry = "Unknown";
     private EmergencyContact currentEmergencyContact;
@@ -52,13 +75,15 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Before inflating, so the saved location is read from disk while the layout builds
+        lastKnownStore = new LastKnownLocationStore(this);
         setContentView(R.layout.activity_main);
         
         initViews();
         initServices();
         
         if (checkPermissions()) {
-            startLocationService();
+            showWaitingForLocation();
         } else {
             requestPermissions();
         }
@@ -67,6 +92,7 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
     private void initViews() {
         tvLocation = findViewById(R.id.tv_location);
         tvCountry = findViewById(R.id.tv_country);
+        tvNearbyCountry = findViewById(R.id.tv_nearby_country);
         btnPolice = findViewById(R.id.btn_police);
         btnAmbulance = findViewById(R.id.btn_ambulance);
         btnFire = findViewById(R.id.btn_fire);
@@ -94,8 +120,33 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
     private void initServices() {
         locationService = new LocationService(this);
         contactsManager = new EmergencyContactsManager(this);
-        countryDetector = new CountryDetector();
+        countryDetector = new CountryDetector(this);
         locationService.setLocationListener(this);
+        // Registered while we're resumed and removed on pause, one request per provider however
+        // often that happens. Without permission nothing registers; the resume that follows the
+        // permission dialog tries again.
+        locationService.bindTo(this);
+        
+        // Contacts load in the background; until a fix arrives the buttons dial the numbers
+        // for where we were last time, or the universal number instead of waiting on "Loading..."
+        if (!showLastKnownLocation()) {
+            showFallbackNumbers();
+        }
+    }
+
+    private boolean showLastKnownLocation() {
+        LastKnownLocationStore.Snapshot lastKnown = lastKnownStore.load();
+        if (lastKnown == null) {
+            return false;
+        }
+        
+        tvLocation.setText(String.format("📍 %.4f, %.4f (last known)",
+                lastKnown.getLatitude(), lastKnown.getLongitude()));
+        currentCountry = lastKnown.getCountry();
+        tvCountry.setText("🌍 Country: " + currentCountry + " (last known)");
+        loadEmergencyContacts(lastKnown.getContact());
+        SosTrace.mark(SosTrace.LAST_KNOWN_SHOWN);
+        return true;
     }
 
     private boolean checkPermissions() {
@@ -127,7 +178,7 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
             }
             
             if (allGranted) {
-                startLocationService();
+                showWaitingForLocation();
             } else {
                 Toast.makeText(this, "All permissions are required for emergency functionality", 
                         Toast.LENGTH_LONG).show();
@@ -136,26 +187,46 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
         }
     }
 
-    private void startLocationService() {
+    private void showWaitingForLocation() {
         tvStatus.setText("📍 Getting location...");
-        locationService.startLocationUpdates();
     }
 
     @Override
     public void onLocationChanged(Location location) {
         updateLocationDisplay(location);
         
-        // Detect country from coordinates
-        new Thread(() -> {
-            String country = countryDetector.getCountryFromCoordinates(
-                    location.getLatitude(), location.getLongitude());
+        // Detect country from coordinates, including neighbours inside the accuracy circle.
+        // Only the newest fix matters: a queued older one is dropped for it, and a result that
+        // a newer fix has overtaken is never shown.
+        int sequence = ++detectionSequence;
+        detectionExecutor.execute(() -> {
+            if (sequence != detectionSequence) {
+                return;
+            }
+            float accuracy = location.hasAccuracy() ? location.getAccuracy() : 0f;
+            List<CountryDetector.CountryCandidate> candidates = countryDetector.getCountryCandidates(
+                    location.getLatitude(), location.getLongitude(), accuracy);
+            String country = candidates.get(0).getCountryName();
+            boolean recognized = candidates.get(0).getCountryId() != CountryDetector.UNKNOWN_COUNTRY;
+            // Looked up here so a fix that beats the contacts load waits off the main thread
+            EmergencyContact contact = contactsManager.getEmergencyContact(candidates.get(0).getCountryId());
+            EmergencyContact nearbyContact = candidates.size() > 1
+                    ? contactsManager.getEmergencyContact(candidates.get(1).getCountryId()) : null;
             
             runOnUiThread(() -> {
+                if (sequence < appliedDetectionSequence) {
+                    return;
+                }
+                appliedDetectionSequence = sequence;
                 currentCountry = country;
                 updateCountryDisplay(country);
-                loadEmergencyContacts(country);
+                loadEmergencyContacts(contact);
+                updateNearbyCountryDisplay(candidates, nearbyContact);
+                if (recognized) {
+                    lastKnownStore.save(location, country, contact);
+                }
             });
-        }).start();
+        });
     }
 
     @Override
@@ -174,10 +245,27 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
         String countryText = "🌍 Country: " + country;
         tvCountry.setText(countryText);
         tvStatus.setText("✅ Ready for emergency calls");
+        SosTrace.mark(SosTrace.READY);
+    }
+
+    private void updateNearbyCountryDisplay(List<CountryDetector.CountryCandidate> candidates,
+                                            EmergencyContact contact) {
+        if (candidates.size() < 2 || contact == null) {
+            tvNearbyCountry.setVisibility(View.GONE);
+            return;
+        }
+        
+        // The accuracy circle crosses a border: show the neighbour's numbers right away
+        // instead of waiting for a tighter fix
+        CountryDetector.CountryCandidate nearby = candidates.get(1);
+        tvNearbyCountry.setText(String.format("⚠️ Near border: %s (%d%%)\n🚔 %s · 🚑 %s · 🚒 %s · 🆘 %s",
+                nearby.getCountryName(), Math.round(nearby.getFraction() * 100),
+                contact.getPolice(), contact.getAmbulance(), contact.getFire(), contact.getGeneral()));
+        tvNearbyCountry.setVisibility(View.VISIBLE);
     }
 
-    private void loadEmergencyContacts(String country) {
-        currentEmergencyContact = contactsManager.getEmergencyContact(country);
+    private void loadEmergencyContacts(EmergencyContact contact) {
+        currentEmergencyContact = contact;
         
         if (currentEmergencyContact != null) {
             updateEmergencyButtons(currentEmergencyContact);
@@ -188,6 +276,7 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
     }
 
     private void updateEmergencyButtons(EmergencyContact contact) {
+        long start = SosTrace.beginSection(SosTrace.BUTTON_UPDATE);
         btnPolice.setText(String.format("🚔 Police\n%s", contact.getPolice()));
         btnAmbulance.setText(String.format("🚑 Ambulance\n%s", contact.getAmbulance()));
         btnFire.setText(String.format("🚒 Fire\n%s", contact.getFire()));
@@ -197,16 +286,28 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
         btnAmbulance.setEnabled(true);
         btnFire.setEnabled(true);
         btnGeneral.setEnabled(true);
+        SosTrace.endSection(SosTrace.BUTTON_UPDATE, start);
     }
 
     private void showFallbackNumbers() {
-        btnPolice.setText("🚔 Police\n112");
-        btnAmbulance.setText("🚑 Ambulance\n112");
-        btnFire.setText("🚒 Fire\n112");
-        btnGeneral.setText("🆘 Emergency\n112");
-        
-        // Create fallback contact
-        currentEmergencyContact = new EmergencyContact("112", "112", "112", "112");
+        // Hard-coded, so it needs neither the contacts database nor a location fix
+        currentEmergencyContact = isNorthAmerica()
+                ? EmergencyContact.of("911", "911", "911", "911")
+                : EmergencyContact.of("112", "112", "112", "112");
+        updateEmergencyButtons(currentEmergencyContact);
+    }
+
+    private boolean isNorthAmerica() {
+        String countryIso = null;
+        TelephonyManager telephonyManager = (TelephonyManager) getSystemService(TELEPHONY_SERVICE);
+        if (telephonyManager != null) {
+            countryIso = telephonyManager.getNetworkCountryIso();
+        }
+        if (countryIso == null || countryIso.isEmpty()) {
+            countryIso = Locale.getDefault().getCountry();
+        }
+        countryIso = countryIso.toUpperCase(Locale.ROOT);
+        return "US".equals(countryIso) || "CA".equals(countryIso);
     }
 
     private void makeEmergencyCall(String type) {
@@ -249,27 +350,20 @@ public class MainActivity extends AppCompatActivity implements LocationService.L
         }
     }
 
+    // adb shell dumpsys activity com.ly2xxx.sos/.MainActivity [--json]
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (locationService != null) {
-            locationService.stopLocationUpdates();
-        }
-    }
-
-    @Override
-    protected void onResume() {
-        super.onResume();
-        if (checkPermissions() && locationService != null) {
-            locationService.startLocationUpdates();
+    public void dump(@NonNull String prefix, FileDescriptor fd, @NonNull PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (args != null && Arrays.asList(args).contains("--json")) {
+            writer.println(SosTrace.toJson());
+        } else {
+            SosTrace.dump(prefix, writer);
         }
     }
 
     @Override
-    protected void onPause() {
-        super.onPause();
-        if (locationService != null) {
-            locationService.stopLocationUpdates();
-        }
+    protected void onDestroy() {
+        super.onDestroy();
+        detectionExecutor.shutdownNow();
     }
 }
@@ -1,74 +1,108 @@
 package com.ly2xxx.sos.model;
 
-public class EmergencyContact {
-    
-    private String police;
-    private String ambulance;
-    private String fire;
-    private String general;
-    
-    public EmergencyContact() {
-        // Default constructor
-    }
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable set of emergency numbers for one country. Numbers are trimmed, checked and pooled
+ * once at construction, so instances can be shared freely across threads and the same "112"
+ * or "911" string backs every contact that uses it.
+ */
+public final class EmergencyContact {
+    
+    // Universal emergency number used by many countries
+    private static final String UNIVERSAL_NUMBER = "112";
+    
+    private static final Map<String, String> NUMBER_POOL = new HashMap<>();
+    private static final Map<EmergencyContact, EmergencyContact> CONTACT_POOL = new HashMap<>();
+    
+    private final String police;
+    private final String ambulance;
+    private final String fire;
+    private final String general;
+    private final String primaryEmergencyNumber;
+    private final int hashCode;
     
     public EmergencyContact(String police, String ambulance, String fire, String general) {
-        this.police = police;
-        this.ambulance = ambulance;
-        this.fire = fire;
-        this.general = general;
+        this.police = pool(police);
+        this.ambulance = pool(ambulance);
+        this.fire = pool(fire);
+        this.general = pool(general);
+        this.primaryEmergencyNumber = firstNonNull(this.general, this.police, this.ambulance, this.fire);
+        
+        int result = this.police != null ? this.police.hashCode() : 0;
+        result = 31 * result + (this.ambulance != null ? this.ambulance.hashCode() : 0);
+        result = 31 * result + (this.fire != null ? this.fire.hashCode() : 0);
+        result = 31 * result + (this.general != null ? this.general.hashCode() : 0);
+        this.hashCode = result;
     }
     
-    public String getPolice() {
-        return police != null ? police : "112";
+    /**
+     * Shared instance for the numbers: countries with identical numbers (112 everywhere, 911
+     * everywhere...) get the same object.
+     */
+    public static EmergencyContact of(String police, String ambulance, String fire, String general) {
+        EmergencyContact contact = new EmergencyContact(police, ambulance, fire, general);
+        synchronized (CONTACT_POOL) {
+            EmergencyContact pooled = CONTACT_POOL.get(contact);
+            if (pooled == null) {
+                CONTACT_POOL.put(contact, contact);
+                pooled = contact;
+            }
+            return pooled;
+        }
     }
     
-    public void setPolice(String police) {
-        this.police = police;
+    // Blank numbers count as missing; everything else is trimmed and shared
+    private static String pool(String number) {
+        if (number == null) {
+            return null;
+        }
+        String trimmed = number.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        synchronized (NUMBER_POOL) {
+            String pooled = NUMBER_POOL.get(trimmed);
+            if (pooled == null) {
+                NUMBER_POOL.put(trimmed, trimmed);
+                pooled = trimmed;
+            }
+            return pooled;
+        }
     }
     
-    public String getAmbulance() {
-        return ambulance != null ? ambulance : "112";
+    private static String firstNonNull(String... numbers) {
+        for (String number : numbers) {
+            if (number != null) {
+                return number;
+            }
+        }
+        return null;
     }
     
-    public void setAmbulance(String ambulance) {
-        this.ambulance = ambulance;
+    public String getPolice() {
+        return police != null ? police : UNIVERSAL_NUMBER;
     }
     
-    public String getFire() {
-        return fire != null ? fire : "112";
+    public String getAmbulance() {
+        return ambulance != null ? ambulance : UNIVERSAL_NUMBER;
     }
     
-    public void setFire(String fire) {
-        this.fire = fire;
+    public String getFire() {
+        return fire != null ? fire : UNIVERSAL_NUMBER;
     }
     
     public String getGeneral() {
-        return general != null ? general : "112";
-    }
-    
-    public void setGeneral(String general) {
-        this.general = general;
+        return general != null ? general : UNIVERSAL_NUMBER;
     }
     
     public boolean isValid() {
-        return (police != null && !police.trim().isEmpty()) ||
-               (ambulance != null && !ambulance.trim().isEmpty()) ||
-               (fire != null && !fire.trim().isEmpty()) ||
-               (general != null && !general.trim().isEmpty());
+        return primaryEmergencyNumber != null;
     }
     
     public String getPrimaryEmergencyNumber() {
-        if (general != null && !general.trim().isEmpty()) {
-            return general;
-        } else if (police != null && !police.trim().isEmpty()) {
-            return police;
-        } else if (ambulance != null && !ambulance.trim().isEmpty()) {
-            return ambulance;
-        } else if (fire != null && !fire.trim().isEmpty()) {
-            return fire;
-        } else {
-            return "112"; // Universal fallback
-        }
+        return primaryEmergencyNumber != null ? primaryEmergencyNumber : UNIVERSAL_NUMBER; // Universal fallback
     }
     
     @Override
@@ -88,6 +122,7 @@ public class EmergencyContact {
         
         EmergencyContact that = (EmergencyContact) o;
         
+        if (hashCode != that.hashCode) return false;
         if (police != null ? !police.equals(that.police) : that.police != null) return false;
         if (ambulance != null ? !ambulance.equals(that.ambulance) : that.ambulance != null)
             return false;
@@ -97,10 +132,6 @@ public class EmergencyContact {
     
     @Override
     public int hashCode() {
-        int result = police != null ? police.hashCode() : 0;
-        result = 31 * result + (ambulance != null ? ambulance.hashCode() : 0);
-        result = 31 * result + (fire != null ? fire.hashCode() : 0);
-        result = 31 * result + (general != null ? general.hashCode() : 0);
-        return result;
+        return hashCode;
     }
-}
\ No newline at end of file
+}
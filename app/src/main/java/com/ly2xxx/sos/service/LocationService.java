@@ -4,21 +4,56 @@ import android.Manifest;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
 
+import com.ly2xxx.sos.util.SosTrace;
+
+/**
+ * Location for country detection, fused from the network and GPS providers.
+ *
+ * <p>Both providers start together, so whichever answers first gives the first fix, and a
+ * fresh last-known location is handed over straight away. Every fix is weighed against the
+ * best one so far by age and accuracy; only improvements reach the listener. Once a fix is
+ * good enough to tell countries apart GPS is switched off and the cheaper network provider
+ * keeps watch, until the fix goes stale. The update interval follows how fast the device is
+ * moving and stretches further when the battery is low.
+ *
+ * <p>Updates are reference counted: each {@link #subscribe()} holds them on until its
+ * subscription is closed, and however many subscriptions are open there is exactly one request
+ * per provider. {@link #bindTo(LifecycleOwner)} keeps a subscription open while a screen is
+ * resumed. Everything here runs on the main thread.
+ */
 public class LocationService extends Service implements LocationListener {
     
     private static final String TAG = "LocationService";
-    private static final long MIN_TIME_BETWEEN_UPDATES = 10000; // 10 seconds
+    private static final long FAST_INTERVAL = 10000; // 10 seconds, when driving
+    private static final long NORMAL_INTERVAL = 30000; // 30 seconds, when walking
+    private static final long SLOW_INTERVAL = 60000; // 1 minute, when standing still
     private static final float MIN_DISTANCE_CHANGE_FOR_UPDATES = 50; // 50 meters
+    private static final float MOVING_SPEED = 1.5f; // m/s, walking pace
+    private static final float FAST_SPEED = 8f; // m/s, about 30 km/h
+    private static final float GOOD_ENOUGH_ACCURACY = 100f; // meters, plenty to tell countries apart
+    private static final float SIGNIFICANTLY_LESS_ACCURATE = 200f; // meters
+    private static final long MAX_FIX_AGE = 2 * 60 * 1000; // 2 minutes
+    private static final int LOW_BATTERY_PERCENT = 20;
+    private static final long BATTERY_CHECK_INTERVAL = 5 * 60 * 1000; // 5 minutes
     
     private Context context;
     private LocationManager locationManager;
@@ -32,14 +67,52 @@ public class LocationService extends Service implements LocationListener {
     
     private LocationListener externalLocationListener;
     
+    // GPS has its own listener so it can be stopped while the network provider carries on
+    private final android.location.LocationListener gpsListener = new android.location.LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            LocationService.this.onLocationChanged(location);
+        }
+        
+        @Override
+        public void onProviderEnabled(String provider) {
+            LocationService.this.onProviderEnabled(provider);
+        }
+        
+        @Override
+        public void onProviderDisabled(String provider) {
+            LocationService.this.onProviderDisabled(provider);
+        }
+        
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+            LocationService.this.onStatusChanged(provider, status, extras);
+        }
+    };
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Turns GPS back on if no good fix has come in for a while
+    private final Runnable gpsWakeUp = this::requestGpsIfNeeded;
+    private boolean gpsActive = false;
+    private boolean networkActive = false;
+    private long updateInterval = NORMAL_INTERVAL;
+    // When updates were started, until the first fix arrives; 0 otherwise
+    private long firstFixRequestedNanos;
+    // Open subscriptions; providers stay registered while there is at least one
+    private int subscriberCount;
+    // The subscription startLocationUpdates holds, so calling it twice doesn't stack
+    private Subscription startedSubscription;
+    // Last battery reading and when it was taken (elapsed realtime, ms); 0 before the first
+    private boolean batteryLow;
+    private long batteryCheckedMillis;
+    
     public interface LocationListener {
         void onLocationChanged(Location location);
         void onLocationError(String error);
     }
     
     public LocationService(Context context) {
+        // Nothing is registered until someone subscribes
         this.context = context;
-        getLocation();
     }
     
     public LocationService() {
@@ -50,7 +123,61 @@ public class LocationService extends Service implements LocationListener {
         this.externalLocationListener = listener;
     }
     
+    /**
+     * The best fix so far, or null. Doesn't start updates; subscribe for that.
+     */
     public Location getLocation() {
+        return location;
+    }
+    
+    /**
+     * Opens a subscription. The first one registers the providers; later ones share those
+     * requests, and the providers are removed when the last one is closed.
+     */
+    public Subscription subscribe() {
+        subscriberCount++;
+        boolean first = subscriberCount == 1;
+        if (first) {
+            firstFixRequestedNanos = SystemClock.elapsedRealtimeNanos();
+        }
+        // Also retries providers that couldn't be registered before, e.g. for lack of permission
+        requestUpdates(first);
+        return new Subscription();
+    }
+    
+    /**
+     * Keeps a subscription open while the owner is resumed: opened in onResume, closed in
+     * onPause, and the binding dropped in onDestroy.
+     */
+    public void bindTo(LifecycleOwner owner) {
+        owner.getLifecycle().addObserver(new DefaultLifecycleObserver() {
+            private Subscription subscription;
+            
+            @Override
+            public void onResume(@NonNull LifecycleOwner owner) {
+                if (subscription == null) {
+                    subscription = subscribe();
+                }
+            }
+            
+            @Override
+            public void onPause(@NonNull LifecycleOwner owner) {
+                if (subscription != null) {
+                    subscription.close();
+                    subscription = null;
+                }
+            }
+            
+            @Override
+            public void onDestroy(@NonNull LifecycleOwner owner) {
+                owner.getLifecycle().removeObserver(this);
+            }
+        });
+    }
+    
+    // Registers whichever providers aren't registered yet; seeds with a fresh last-known fix
+    // when asked to
+    private void requestUpdates(boolean seedFromLastKnown) {
         try {
             locationManager = (LocationManager) context.getSystemService(LOCATION_SERVICE);
             
@@ -64,82 +191,107 @@ public class LocationService extends Service implements LocationListener {
                 if (externalLocationListener != null) {
                     externalLocationListener.onLocationError("No location providers available");
                 }
-                return null;
+                return;
             }
             
             this.canGetLocation = true;
             
-            // Try Network provider first (faster)
-            if (isNetworkEnabled) {
-                if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION)
-                        == PackageManager.PERMISSION_GRANTED) {
-                    locationManager.requestLocationUpdates(
-                            LocationManager.NETWORK_PROVIDER,
-                            MIN_TIME_BETWEEN_UPDATES,
-                            MIN_DISTANCE_CHANGE_FOR_UPDATES,
-                            this
-                    );
-                    
-                    Log.d(TAG, "Network location provider enabled");
-                    
-                    if (locationManager != null) {
-                        location = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
-                        if (location != null) {
-                            latitude = location.getLatitude();
-                            longitude = location.getLongitude();
-                        }
-                    }
+            // Start from the best recent fix either provider already has
+            Location lastKnown = null;
+            if (isNetworkEnabled && hasPermission(Manifest.permission.ACCESS_COARSE_LOCATION)) {
+                lastKnown = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+            }
+            if (isGPSEnabled && hasPermission(Manifest.permission.ACCESS_FINE_LOCATION)) {
+                Location gpsLastKnown = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+                if (gpsLastKnown != null && isBetterLocation(gpsLastKnown, lastKnown, true)) {
+                    lastKnown = gpsLastKnown;
                 }
             }
-            
-            // Try GPS provider for more accuracy
-            if (isGPSEnabled) {
-                if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
-                        == PackageManager.PERMISSION_GRANTED) {
-                    if (location == null) {
-                        locationManager.requestLocationUpdates(
-                                LocationManager.GPS_PROVIDER,
-                                MIN_TIME_BETWEEN_UPDATES,
-                                MIN_DISTANCE_CHANGE_FOR_UPDATES,
-                                this
-                        );
-                        
-                        Log.d(TAG, "GPS location provider enabled");
-                        
-                        if (locationManager != null) {
-                            location = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-                            if (location != null) {
-                                latitude = location.getLatitude();
-                                longitude = location.getLongitude();
-                            }
-                        }
+            if (seedFromLastKnown && lastKnown != null && ageMillis(lastKnown) <= MAX_FIX_AGE) {
+                // Posted, so the caller finishes setting up before the first fix arrives
+                final Location seed = lastKnown;
+                handler.post(() -> {
+                    if (subscriberCount > 0) {
+                        updateLocation(seed);
                     }
-                }
+                });
             }
             
+            updateInterval = chooseInterval(location != null && location.hasSpeed() ? location.getSpeed() : 0f,
+                    isBatteryLow());
+            requestNetworkUpdates();
+            requestGpsIfNeeded();
+            
         } catch (Exception e) {
             Log.e(TAG, "Error getting location", e);
             if (externalLocationListener != null) {
                 externalLocationListener.onLocationError("Error getting location: " + e.getMessage());
             }
         }
-        
-        return location;
     }
     
+    /**
+     * Holds one subscription until stopLocationUpdates. Calling it again while started does
+     * nothing.
+     */
     public void startLocationUpdates() {
-        getLocation();
+        if (startedSubscription == null) {
+            startedSubscription = subscribe();
+        }
     }
     
     public void stopLocationUpdates() {
+        if (startedSubscription != null) {
+            startedSubscription.close();
+            startedSubscription = null;
+        }
+    }
+    
+    // Open subscriptions
+    int getSubscriberCount() {
+        return subscriberCount;
+    }
+    
+    // Provider requests currently registered with LocationManager
+    int getActiveRequestCount() {
+        return (networkActive ? 1 : 0) + (gpsActive ? 1 : 0);
+    }
+    
+    private void release() {
+        subscriberCount--;
+        if (subscriberCount == 0) {
+            removeUpdates();
+        }
+    }
+    
+    private void removeUpdates() {
+        handler.removeCallbacks(gpsWakeUp);
         if (locationManager != null) {
-            if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
-                    == PackageManager.PERMISSION_GRANTED ||
-                ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION)
-                    == PackageManager.PERMISSION_GRANTED) {
-                locationManager.removeUpdates(this);
+            // A flag only drops once its listener is really gone, so a skipped removal is
+            // retried next time instead of leaving an untracked request behind
+            if (removeListener(this)) {
+                networkActive = false;
+            }
+            if (removeListener(gpsListener)) {
+                gpsActive = false;
             }
         }
+        firstFixRequestedNanos = 0;
+    }
+    
+    // Whether the listener was removed; skipped without any location permission
+    private boolean removeListener(android.location.LocationListener listener) {
+        if (!hasPermission(Manifest.permission.ACCESS_FINE_LOCATION)
+                && !hasPermission(Manifest.permission.ACCESS_COARSE_LOCATION)) {
+            return false;
+        }
+        try {
+            locationManager.removeUpdates(listener);
+            return true;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Error removing location updates", e);
+            return false;
+        }
     }
     
     public double getLatitude() {
@@ -162,15 +314,33 @@ public class LocationService extends Service implements LocationListener {
     
     @Override
     public void onLocationChanged(Location location) {
+        // Only provider callbacks count; the last-known seed is not a fix we waited for
+        if (firstFixRequestedNanos != 0) {
+            SosTrace.record(SosTrace.TIME_TO_FIRST_FIX, SystemClock.elapsedRealtimeNanos() - firstFixRequestedNanos);
+            SosTrace.mark(SosTrace.FIRST_FIX);
+            firstFixRequestedNanos = 0;
+        }
+        updateLocation(location);
+    }
+    
+    private void updateLocation(Location location) {
+        if (!isBetterLocation(location, this.location, gpsActive)) {
+            Log.d(TAG, "Ignoring " + location.getProvider() + " fix, the current one is better");
+            return;
+        }
+        
+        float speed = estimateSpeed(this.location, location);
         this.location = location;
         this.latitude = location.getLatitude();
         this.longitude = location.getLongitude();
         
-        Log.d(TAG, "Location changed: " + latitude + ", " + longitude);
+        Log.d(TAG, "Location changed: " + latitude + ", " + longitude + " from " + location.getProvider());
         
         if (externalLocationListener != null) {
             externalLocationListener.onLocationChanged(location);
         }
+        
+        adaptUpdates(speed);
     }
     
     @Override
@@ -196,9 +366,215 @@ public class LocationService extends Service implements LocationListener {
         return null;
     }
     
+    // After a new best fix: drop GPS if the fix is good enough and retune the interval
+    private void adaptUpdates(float speed) {
+        if (locationManager == null) {
+            return;
+        }
+        
+        if (isGoodEnough(location, SystemClock.elapsedRealtimeNanos())) {
+            if (gpsActive && removeListener(gpsListener)) {
+                gpsActive = false;
+                Log.d(TAG, "Good enough fix, GPS off");
+            }
+            handler.removeCallbacks(gpsWakeUp);
+            handler.postDelayed(gpsWakeUp, MAX_FIX_AGE);
+        }
+        
+        long interval = chooseInterval(speed, isBatteryLow());
+        if (interval != updateInterval) {
+            Log.d(TAG, "Update interval " + updateInterval + " -> " + interval + " ms");
+            updateInterval = interval;
+            if (networkActive) {
+                networkActive = false;
+                requestNetworkUpdates();
+            }
+            if (gpsActive) {
+                gpsActive = false;
+                requestGpsIfNeeded();
+            }
+        }
+    }
+    
+    private void requestNetworkUpdates() {
+        if (subscriberCount == 0 || !isNetworkEnabled || networkActive
+                || !hasPermission(Manifest.permission.ACCESS_COARSE_LOCATION)) {
+            return;
+        }
+        try {
+            locationManager.requestLocationUpdates(
+                    LocationManager.NETWORK_PROVIDER,
+                    updateInterval,
+                    MIN_DISTANCE_CHANGE_FOR_UPDATES,
+                    this
+            );
+            networkActive = true;
+            Log.d(TAG, "Network location provider enabled");
+        } catch (SecurityException e) {
+            Log.e(TAG, "Error requesting network updates", e);
+        }
+    }
+    
+    // GPS only runs while there is no fresh, accurate fix
+    private void requestGpsIfNeeded() {
+        if (subscriberCount == 0 || locationManager == null || !isGPSEnabled || gpsActive
+                || !hasPermission(Manifest.permission.ACCESS_FINE_LOCATION)
+                || isGoodEnough(location, SystemClock.elapsedRealtimeNanos())) {
+            return;
+        }
+        try {
+            locationManager.requestLocationUpdates(
+                    LocationManager.GPS_PROVIDER,
+                    updateInterval,
+                    MIN_DISTANCE_CHANGE_FOR_UPDATES,
+                    gpsListener
+            );
+            gpsActive = true;
+            Log.d(TAG, "GPS location provider enabled");
+        } catch (SecurityException e) {
+            Log.e(TAG, "Error requesting GPS updates", e);
+        }
+    }
+    
+    private boolean hasPermission(String permission) {
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+    
+    // Read at most every few minutes: the level barely moves between fixes
+    private boolean isBatteryLow() {
+        long now = SystemClock.elapsedRealtime();
+        if (batteryCheckedMillis == 0 || now - batteryCheckedMillis >= BATTERY_CHECK_INTERVAL) {
+            batteryLow = readBatteryLow();
+            batteryCheckedMillis = now;
+        }
+        return batteryLow;
+    }
+    
+    private boolean readBatteryLow() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Asks the service directly instead of registering for the sticky broadcast
+            BatteryManager manager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+            if (manager != null) {
+                int percent = manager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+                // 0 or Integer.MIN_VALUE where the property isn't supported
+                return !manager.isCharging() && percent > 0 && percent <= LOW_BATTERY_PERCENT;
+            }
+        }
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        boolean charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        return !charging && level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+    }
+    
+    private static long ageMillis(Location location) {
+        return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+    }
+    
+    /**
+     * Whether candidate should replace current: a much newer fix always wins and a much older
+     * one never does. Otherwise a more accurate fix wins, and a newer one wins if it is good
+     * enough, if it lies outside current's accuracy circle, if GPS isn't requested, or if it
+     * comes from the same provider and is not much less accurate.
+     */
+    static boolean isBetterLocation(Location candidate, Location current, boolean gpsRequested) {
+        if (current == null) {
+            return true;
+        }
+        
+        long timeDelta = (candidate.getElapsedRealtimeNanos() - current.getElapsedRealtimeNanos()) / 1000000;
+        if (timeDelta > MAX_FIX_AGE) {
+            return true;
+        }
+        if (timeDelta < -MAX_FIX_AGE) {
+            return false;
+        }
+        boolean isNewer = timeDelta > 0;
+        
+        float accuracyDelta = accuracy(candidate) - accuracy(current);
+        if (accuracyDelta < 0) {
+            return true;
+        }
+        // Moving on with a newer fix that is still good enough beats holding on to a sharper
+        // but older one, or the network provider could never update a GPS fix
+        if (isNewer && (accuracyDelta == 0 || accuracy(candidate) <= GOOD_ENOUGH_ACCURACY)) {
+            return true;
+        }
+        // A newer fix the old one can't account for means we've moved, and with GPS off no
+        // sharper fix is on its way; either way waiting would leave a stale position up
+        if (isNewer && (!gpsRequested || current.distanceTo(candidate) > accuracy(current))) {
+            return true;
+        }
+        boolean sameProvider = candidate.getProvider() != null && candidate.getProvider().equals(current.getProvider());
+        return isNewer && sameProvider && accuracyDelta <= SIGNIFICANTLY_LESS_ACCURATE;
+    }
+    
+    /**
+     * Whether the fix is recent and accurate enough that GPS has nothing to add.
+     */
+    static boolean isGoodEnough(Location location, long nowNanos) {
+        return location != null && location.hasAccuracy()
+                && location.getAccuracy() <= GOOD_ENOUGH_ACCURACY
+                && (nowNanos - location.getElapsedRealtimeNanos()) / 1000000 <= MAX_FIX_AGE;
+    }
+    
+    /**
+     * Update interval for the given speed in m/s: frequent when driving, where a border can
+     * come up quickly, and rare when standing still. Doubled on a low battery.
+     */
+    static long chooseInterval(float speed, boolean batteryLow) {
+        long interval;
+        if (speed >= FAST_SPEED) {
+            interval = FAST_INTERVAL;
+        } else if (speed >= MOVING_SPEED) {
+            interval = NORMAL_INTERVAL;
+        } else {
+            interval = SLOW_INTERVAL;
+        }
+        return batteryLow ? interval * 2 : interval;
+    }
+    
+    // The fix's own speed if it has one, otherwise distance over time since the previous fix
+    static float estimateSpeed(Location previous, Location next) {
+        if (next.hasSpeed()) {
+            return next.getSpeed();
+        }
+        if (previous == null) {
+            return 0f;
+        }
+        float seconds = (next.getElapsedRealtimeNanos() - previous.getElapsedRealtimeNanos()) / 1e9f;
+        return seconds > 0 ? previous.distanceTo(next) / seconds : 0f;
+    }
+    
+    // Fixes without an accuracy count as the least accurate
+    private static float accuracy(Location location) {
+        return location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
+    }
+    
+    /**
+     * Keeps location updates on until closed. Closing twice is harmless.
+     */
+    public final class Subscription {
+        private boolean closed;
+        
+        private Subscription() {
+        }
+        
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release();
+        }
+    }
+    
     public static class LocationException extends Exception {
         public LocationException(String message) {
             super(message);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package com.ly2xxx.sos.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed lat/lng grid over a set of bounding boxes. Every cell lists the boxes that touch it,
+ * first those lying wholly inside some other box (Qatar, Kuwait, Singapore...), smallest
+ * first, then the rest in table order. Small countries thus win over the boxes around them,
+ * while for boxes that only partly overlap (Austria and Hungary) the first listed still wins.
+ *
+ * Boxes use the same layout as {@link CountryDetector}: [minLat, maxLat, minLng, maxLng], with
+ * minLng > maxLng meaning the box crosses the 180° meridian.
+ */
+class BoxGridIndex {
+    
+    static final double CELL_DEGREES = 5.0;
+    static final int ROWS = (int) (180.0 / CELL_DEGREES);
+    static final int COLS = (int) (360.0 / CELL_DEGREES);
+    private static final int[] NO_CANDIDATES = new int[0];
+    
+    private final double[][] bounds;
+    private final int[][] cells;
+    
+    BoxGridIndex(double[][] bounds) {
+        this.bounds = bounds;
+        this.cells = build(bounds);
+    }
+    
+    /**
+     * Box indices that may contain the point, in the order above. The returned array is shared
+     * and must not be modified.
+     */
+    int[] candidates(double latitude, double longitude) {
+        return cells[row(latitude) * COLS + col(longitude)];
+    }
+    
+    /**
+     * First box containing the point, in the order above, or -1.
+     */
+    int find(double latitude, double longitude) {
+        for (int candidate : candidates(latitude, longitude)) {
+            if (boxContains(bounds[candidate], latitude, longitude)) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+    
+    static boolean boxContains(double[] bounds, double latitude, double longitude) {
+        double minLat = bounds[0];
+        double maxLat = bounds[1];
+        double minLng = bounds[2];
+        double maxLng = bounds[3];
+        
+        // Handle longitude wrap-around (e.g., for Russia)
+        boolean longitudeMatch;
+        if (minLng > maxLng) {
+            // Crosses 180° meridian
+            longitudeMatch = (longitude >= minLng || longitude <= maxLng);
+        } else {
+            longitudeMatch = (longitude >= minLng && longitude <= maxLng);
+        }
+        
+        return latitude >= minLat && latitude <= maxLat && longitudeMatch;
+    }
+    
+    /**
+     * Whether inner lies wholly inside outer, allowing for either crossing the 180° meridian.
+     */
+    static boolean boxWithin(double[] inner, double[] outer) {
+        if (inner[0] < outer[0] || inner[1] > outer[1]) {
+            return false;
+        }
+        boolean innerWraps = inner[2] > inner[3];
+        if (outer[2] <= outer[3]) {
+            return !innerWraps && inner[2] >= outer[2] && inner[3] <= outer[3];
+        }
+        if (innerWraps) {
+            return inner[2] >= outer[2] && inner[3] <= outer[3];
+        }
+        // Entirely on one side of the meridian, within that part of outer
+        return inner[2] >= outer[2] || inner[3] <= outer[3];
+    }
+    
+    static double boxArea(double[] bounds) {
+        double width = bounds[3] - bounds[2];
+        if (width < 0) {
+            width += 360.0;
+        }
+        return (bounds[1] - bounds[0]) * width;
+    }
+    
+    static int row(double latitude) {
+        int row = (int) Math.floor((latitude + 90.0) / CELL_DEGREES);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+    
+    static int col(double longitude) {
+        int col = (int) Math.floor((longitude + 180.0) / CELL_DEGREES);
+        return Math.max(0, Math.min(COLS - 1, col));
+    }
+    
+    private static int[][] build(double[][] boundaries) {
+        List<List<Integer>> cells = new ArrayList<>(ROWS * COLS);
+        for (int i = 0; i < ROWS * COLS; i++) {
+            cells.add(null);
+        }
+        
+        // Insert boxes in lookup order so every cell list ends up in it
+        for (int box : lookupOrder(boundaries)) {
+            double[] bounds = boundaries[box];
+            int minRow = row(bounds[0]);
+            int maxRow = row(bounds[1]);
+            int minCol = col(bounds[2]);
+            int maxCol = col(bounds[3]);
+            
+            for (int row = minRow; row <= maxRow; row++) {
+                if (minCol <= maxCol) {
+                    addToCells(cells, row, minCol, maxCol, box);
+                } else {
+                    // Crosses 180° meridian
+                    addToCells(cells, row, minCol, COLS - 1, box);
+                    addToCells(cells, row, 0, maxCol, box);
+                }
+            }
+        }
+        
+        int[][] grid = new int[cells.size()][];
+        for (int i = 0; i < grid.length; i++) {
+            List<Integer> candidates = cells.get(i);
+            if (candidates == null) {
+                grid[i] = NO_CANDIDATES;
+                continue;
+            }
+            grid[i] = new int[candidates.size()];
+            for (int j = 0; j < grid[i].length; j++) {
+                grid[i][j] = candidates.get(j);
+            }
+        }
+        return grid;
+    }
+    
+    private static Integer[] lookupOrder(double[][] boundaries) {
+        boolean[] enclosed = new boolean[boundaries.length];
+        Integer[] order = new Integer[boundaries.length];
+        for (int i = 0; i < boundaries.length; i++) {
+            order[i] = i;
+            for (int j = 0; j < boundaries.length && !enclosed[i]; j++) {
+                enclosed[i] = j != i && boxWithin(boundaries[i], boundaries[j]);
+            }
+        }
+        Arrays.sort(order, (a, b) -> {
+            if (enclosed[a] != enclosed[b]) {
+                return enclosed[a] ? -1 : 1;
+            }
+            int byArea = enclosed[a] ? Double.compare(boxArea(boundaries[a]), boxArea(boundaries[b])) : 0;
+            return byArea != 0 ? byArea : Integer.compare(a, b);
+        });
+        return order;
+    }
+    
+    private static void addToCells(List<List<Integer>> cells, int row, int fromCol, int toCol, int box) {
+        for (int col = fromCol; col <= toCol; col++) {
+            int cell = row * COLS + col;
+            if (cells.get(cell) == null) {
+                cells.set(cell, new ArrayList<>());
+            }
+            cells.get(cell).add(box);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.ly2xxx.sos.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Simplified country border polygons, packed at build time into the {@value #ASSETS_FILE}
+ * asset (see {@code app/assets.gradle}) and streamed into primitive arrays on first use.
+ *
+ * <p>File layout (big-endian, as written by {@link java.io.DataOutputStream}):
+ * <pre>
+ * int    magic        0x534F5342 ("SOSB")
+ * short  version      1
+ * int    countryCount
+ * per country:
+ *   UTF  name         key used in emergency_contacts.json, e.g. "Czech_Republic"
+ *   int  ringCount
+ *   per ring:
+ *     int pointCount
+ *     pointCount x (zigzag varint dLng, zigzag varint dLat)
+ * </pre>
+ * Coordinates are fixed point in 1e-5 degree units and delta-encoded against the previous
+ * point of the same ring. Rings of one country are tested with the even-odd rule, so holes
+ * and multi-part countries need no extra bookkeeping. The packer splits rings at the 180°
+ * meridian, and the prefilter boxes each ring on its own, so the two halves of Russia or Fiji
+ * stay two small boxes instead of one spanning the globe.
+ */
+public class CountryBorders {
+    
+    private static final String TAG = "CountryBorders";
+    static final String ASSETS_FILE = "country_borders.bin";
+    static final int MAGIC = 0x534F5342;
+    static final int VERSION = 1;
+    static final double COORDINATE_SCALE = 1e5;
+    
+    private final String[] names;
+    // Per country, per ring: lng/lat pairs interleaved
+    private final float[][][] rings;
+    // Flattened over all countries: the country of each ring and its bounding box
+    private final int[] ringCountries;
+    private final double[][] ringBounds;
+    private final BoxGridIndex index;
+    
+    CountryBorders(String[] names, float[][][] rings) {
+        this.names = names;
+        this.rings = rings;
+        int ringCount = 0;
+        for (float[][] countryRings : rings) {
+            ringCount += countryRings.length;
+        }
+        this.ringCountries = new int[ringCount];
+        this.ringBounds = new double[ringCount][];
+        int r = 0;
+        for (int country = 0; country < names.length; country++) {
+            for (float[] ring : rings[country]) {
+                ringCountries[r] = country;
+                ringBounds[r++] = computeBounds(ring);
+            }
+        }
+        this.index = new BoxGridIndex(ringBounds);
+    }
+    
+    /**
+     * Loads the packed border asset, or returns null when the build did not ship one so the
+     * caller can stay on bounding boxes.
+     */
+    public static CountryBorders load(Context context) {
+        try (InputStream is = context.getAssets().open(ASSETS_FILE)) {
+            CountryBorders borders = read(is);
+            Log.d(TAG, "Loaded borders for " + borders.getCountryCount() + " countries");
+            return borders;
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No border dataset packaged, using bounding boxes only");
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading border dataset", e);
+        }
+        return null;
+    }
+    
+    static CountryBorders read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a country border file");
+        }
+        int version = data.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported border file version: " + version);
+        }
+        
+        int countryCount = data.readInt();
+        String[] names = new String[countryCount];
+        float[][][] rings = new float[countryCount][][];
+        for (int c = 0; c < countryCount; c++) {
+            names[c] = data.readUTF();
+            int ringCount = data.readInt();
+            rings[c] = new float[ringCount][];
+            for (int r = 0; r < ringCount; r++) {
+                int pointCount = data.readInt();
+                float[] ring = new float[pointCount * 2];
+                int lng = 0;
+                int lat = 0;
+                for (int p = 0; p < pointCount; p++) {
+                    lng += readZigZagVarInt(data);
+                    lat += readZigZagVarInt(data);
+                    ring[p * 2] = (float) (lng / COORDINATE_SCALE);
+                    ring[p * 2 + 1] = (float) (lat / COORDINATE_SCALE);
+                }
+                rings[c][r] = ring;
+            }
+        }
+        return new CountryBorders(names, rings);
+    }
+    
+    private static int readZigZagVarInt(DataInputStream data) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private static double[] computeBounds(float[] ring) {
+        double minLat = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double minLng = Double.MAX_VALUE;
+        double maxLng = -Double.MAX_VALUE;
+        for (int i = 0; i < ring.length; i += 2) {
+            minLng = Math.min(minLng, ring[i]);
+            maxLng = Math.max(maxLng, ring[i]);
+            minLat = Math.min(minLat, ring[i + 1]);
+            maxLat = Math.max(maxLat, ring[i + 1]);
+        }
+        return new double[]{minLat, maxLat, minLng, maxLng};
+    }
+    
+    /**
+     * Country whose border contains the point, or null when the point is outside every
+     * polygon (open sea, or just off a simplified coastline).
+     */
+    public String findCountry(double latitude, double longitude) {
+        int country = findCountryIndex(latitude, longitude);
+        return country >= 0 ? names[country] : null;
+    }
+    
+    int findCountryIndex(double latitude, double longitude) {
+        // Ring box prefilter first, polygons only for the countries of the rings that match.
+        // Borders don't overlap (an enclave is a hole in its neighbour), so the first hit is the
+        // answer.
+        int tested = -1;
+        for (int candidate : index.candidates(latitude, longitude)) {
+            int country = ringCountries[candidate];
+            if (country != tested && BoxGridIndex.boxContains(ringBounds[candidate], latitude, longitude)) {
+                if (contains(country, latitude, longitude)) {
+                    return country;
+                }
+                tested = country;
+            }
+        }
+        return -1;
+    }
+    
+    boolean contains(int country, double latitude, double longitude) {
+        boolean inside = false;
+        for (float[] ring : rings[country]) {
+            int points = ring.length / 2;
+            for (int i = 0, j = points - 1; i < points; j = i++) {
+                double xi = ring[i * 2];
+                double yi = ring[i * 2 + 1];
+                double xj = ring[j * 2];
+                double yj = ring[j * 2 + 1];
+                if ((yi > latitude) != (yj > latitude)
+                        && longitude < (xj - xi) * (latitude - yi) / (yj - yi) + xi) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+    
+    public int getCountryCount() {
+        return names.length;
+    }
+    
+    String getCountryName(int country) {
+        return names[country];
+    }
+}
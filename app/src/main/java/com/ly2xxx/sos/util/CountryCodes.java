@@ -0,0 +1,171 @@
+package com.ly2xxx.sos.util;
+
+import java.util.Arrays;
+
+/**
+ * ISO 3166-1 codes and common alternative names for every country the app knows about, keyed
+ * by the names used in emergency_contacts.json. Rows are ordered by alpha-2 code, and a row's
+ * index is the country id shared by CountryDetector and EmergencyContactsManager: ids are
+ * dense, so per-country data can live in a plain array of {@link #size()} slots.
+ */
+public final class CountryCodes {
+    
+    public static final int NOT_FOUND = -1;
+    
+    // alpha-2, alpha-3, country key, then any aliases
+    private static final String[][] COUNTRIES = {
+            {"AD", "AND", "Andorra"},
+            {"AE", "ARE", "United_Arab_Emirates", "UAE", "Emirates"},
+            {"AF", "AFG", "Afghanistan"},
+            {"AL", "ALB", "Albania"},
+            {"AM", "ARM", "Armenia"},
+            {"AO", "AGO", "Angola"},
+            {"AR", "ARG", "Argentina"},
+            {"AT", "AUT", "Austria", "Österreich"},
+            {"AU", "AUS", "Australia"},
+            {"AZ", "AZE", "Azerbaijan"},
+            {"BA", "BIH", "Bosnia_Herzegovina", "Bosnia and Herzegovina", "Bosnia"},
+            {"BD", "BGD", "Bangladesh"},
+            {"BE", "BEL", "Belgium"},
+            {"BG", "BGR", "Bulgaria"},
+            {"BH", "BHR", "Bahrain"},
+            {"BO", "BOL", "Bolivia"},
+            {"BR", "BRA", "Brazil", "Brasil"},
+            {"BY", "BLR", "Belarus"},
+            {"CA", "CAN", "Canada"},
+            {"CH", "CHE", "Switzerland", "Schweiz", "Suisse", "Svizzera"},
+            {"CL", "CHL", "Chile"},
+            {"CN", "CHN", "China"},
+            {"CO", "COL", "Colombia"},
+            {"CY", "CYP", "Cyprus"},
+            {"CZ", "CZE", "Czech_Republic", "Czechia", "Česko"},
+            {"DE", "DEU", "Germany", "Deutschland"},
+            {"DK", "DNK", "Denmark", "Danmark"},
+            {"DZ", "DZA", "Algeria"},
+            {"EC", "ECU", "Ecuador"},
+            {"EE", "EST", "Estonia"},
+            {"EG", "EGY", "Egypt"},
+            {"ES", "ESP", "Spain", "España"},
+            {"ET", "ETH", "Ethiopia"},
+            {"FI", "FIN", "Finland", "Suomi"},
+            {"FR", "FRA", "France"},
+            {"GB", "GBR", "United_Kingdom", "UK", "Great Britain", "Britain", "England", "Scotland", "Wales", "Northern Ireland"},
+            {"GE", "GEO", "Georgia"},
+            {"GH", "GHA", "Ghana"},
+            {"GR", "GRC", "Greece"},
+            {"HR", "HRV", "Croatia", "Hrvatska"},
+            {"HU", "HUN", "Hungary", "Magyarország"},
+            {"ID", "IDN", "Indonesia"},
+            {"IE", "IRL", "Ireland", "Eire"},
+            {"IL", "ISR", "Israel"},
+            {"IN", "IND", "India"},
+            {"IQ", "IRQ", "Iraq"},
+            {"IR", "IRN", "Iran"},
+            {"IS", "ISL", "Iceland"},
+            {"IT", "ITA", "Italy", "Italia"},
+            {"JO", "JOR", "Jordan"},
+            {"JP", "JPN", "Japan"},
+            {"KE", "KEN", "Kenya"},
+            {"KH", "KHM", "Cambodia"},
+            {"KR", "KOR", "South_Korea", "Korea", "Republic of Korea"},
+            {"KW", "KWT", "Kuwait"},
+            {"KZ", "KAZ", "Kazakhstan"},
+            {"LB", "LBN", "Lebanon"},
+            {"LK", "LKA", "Sri_Lanka"},
+            {"LT", "LTU", "Lithuania"},
+            {"LU", "LUX", "Luxembourg"},
+            {"LV", "LVA", "Latvia"},
+            {"MA", "MAR", "Morocco"},
+            {"MX", "MEX", "Mexico", "México"},
+            {"MY", "MYS", "Malaysia"},
+            {"NG", "NGA", "Nigeria"},
+            {"NL", "NLD", "Netherlands", "Holland", "The Netherlands"},
+            {"NO", "NOR", "Norway", "Norge"},
+            {"NZ", "NZL", "New_Zealand"},
+            {"PE", "PER", "Peru"},
+            {"PH", "PHL", "Philippines"},
+            {"PK", "PAK", "Pakistan"},
+            {"PL", "POL", "Poland", "Polska"},
+            {"PT", "PRT", "Portugal"},
+            {"QA", "QAT", "Qatar"},
+            {"RO", "ROU", "Romania"},
+            {"RU", "RUS", "Russia", "Russian Federation"},
+            {"SA", "SAU", "Saudi_Arabia"},
+            {"SE", "SWE", "Sweden", "Sverige"},
+            {"SG", "SGP", "Singapore"},
+            {"SI", "SVN", "Slovenia"},
+            {"SK", "SVK", "Slovakia"},
+            {"TH", "THA", "Thailand"},
+            {"TR", "TUR", "Turkey", "Türkiye", "Turkiye"},
+            {"UA", "UKR", "Ukraine"},
+            {"US", "USA", "United_States", "United States of America", "America"},
+            {"UY", "URY", "Uruguay"},
+            {"VE", "VEN", "Venezuela"},
+            {"VN", "VNM", "Vietnam", "Viet Nam"},
+            {"ZA", "ZAF", "South_Africa"},
+    };
+    
+    private static final NormalizedKeyIndex NAMES;
+    
+    static {
+        int count = 0;
+        for (String[] country : COUNTRIES) {
+            count += country.length;
+        }
+        NAMES = new NormalizedKeyIndex(count);
+        for (int id = 0; id < COUNTRIES.length; id++) {
+            for (String name : COUNTRIES[id]) {
+                NAMES.put(name, id);
+            }
+        }
+    }
+    
+    private CountryCodes() {
+    }
+    
+    public static int size() {
+        return COUNTRIES.length;
+    }
+    
+    public static String getAlpha2(int id) {
+        return COUNTRIES[id][0];
+    }
+    
+    public static String getAlpha3(int id) {
+        return COUNTRIES[id][1];
+    }
+    
+    public static String getKey(int id) {
+        return COUNTRIES[id][2];
+    }
+    
+    /**
+     * Every accepted spelling for the country: its key, both ISO codes and any aliases.
+     */
+    public static String[] getNames(int id) {
+        return COUNTRIES[id].clone();
+    }
+    
+    /**
+     * Other names the country goes by, such as "UK" or "España"; excludes the key and ISO codes.
+     */
+    public static String[] getAliases(int id) {
+        return Arrays.copyOfRange(COUNTRIES[id], 3, COUNTRIES[id].length);
+    }
+    
+    /**
+     * Id of the country key, or {@link #NOT_FOUND}.
+     */
+    public static int indexOfKey(String key) {
+        int id = findId(key);
+        return id != NOT_FOUND && COUNTRIES[id][2].equals(key) ? id : NOT_FOUND;
+    }
+    
+    /**
+     * Id for any accepted spelling of the country (key, ISO code or alias, ignoring case and
+     * separators), or {@link #NOT_FOUND}. Does not allocate.
+     */
+    public static int findId(CharSequence name) {
+        return NAMES.get(name);
+    }
+}
@@ -1,8 +1,13 @@
 package com.ly2xxx.sos.util;
 
+import android.content.Context;
 import android.util.Log;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CountryDetector {
@@ -11,7 +16,77 @@ public class CountryDetector {
     
     // Country boundaries (simplified for major countries)
     // Format: [minLat, maxLat, minLng, maxLng]
-    private static final Map<String, double[]> COUNTRY_BOUNDARIES = new HashMap<>();
+    private static final Map<String, double[]> COUNTRY_BOUNDARIES = new LinkedHashMap<>();
+    
+    private static final String[] COUNTRY_NAMES;
+    private static final BoxGridIndex COUNTRY_INDEX;
+    // Country id for each box in COUNTRY_INDEX
+    private static final int[] BOX_COUNTRY_IDS;
+    
+    // Country ids are the CountryCodes ids, shared with EmergencyContactsManager. Unknown comes
+    // right after them; border datasets may add ids for countries CountryCodes does not list.
+    private static final String UNKNOWN_COUNTRY_NAME = "Unknown";
+    public static final int UNKNOWN_COUNTRY = CountryCodes.size();
+    private static final int GERMANY = CountryCodes.indexOfKey("Germany");
+    private static final int UNITED_STATES = CountryCodes.indexOfKey("United_States");
+    private static final int CHINA = CountryCodes.indexOfKey("China");
+    private static final int SOUTH_AFRICA = CountryCodes.indexOfKey("South_Africa");
+    private static final int BRAZIL = CountryCodes.indexOfKey("Brazil");
+    private static final int AUSTRALIA = CountryCodes.indexOfKey("Australia");
+    
+    private final Context context;
+    private volatile boolean geometryLoaded;
+    private CountryBorders borders;
+    private GeoCellTable cells;
+    // Detector ids for the country indices used by the border and cell datasets
+    private int[] borderCountryIds;
+    private int[] cellCountryIds;
+    private String[] countryNames = COUNTRY_NAMES;
+    
+    // Memo of the last answer and the region it stays valid in, so fixes that keep landing in
+    // the same place skip detection entirely
+    private static final int MEMO_NONE = 0;
+    private static final int MEMO_CELL_RANGE = 1;
+    private static final int MEMO_POLYGON = 2;
+    private static final int MEMO_NEARBY = 3;
+    // Bounding boxes are only accurate to tens of kilometres, so a box answer is reused while
+    // the user stays within this radius of the fix it was computed for
+    private static final double MEMO_RADIUS_METERS = 250.0;
+    private static final double METERS_PER_DEGREE = 111320.0;
+    
+    // Accuracy circles are sampled at equal-area points (a sunflower pattern) to estimate how
+    // much of the circle falls in each country. The first PERIMETER_SAMPLES points sit on the
+    // rim so a circle well inside one country is recognised after a handful of lookups.
+    private static final int PERIMETER_SAMPLES = 8;
+    private static final int AREA_SAMPLES = 64;
+    private static final double MIN_CANDIDATE_FRACTION = 0.05;
+    private static final double[] SAMPLE_NORTH = new double[PERIMETER_SAMPLES + AREA_SAMPLES];
+    private static final double[] SAMPLE_EAST = new double[PERIMETER_SAMPLES + AREA_SAMPLES];
+    
+    static {
+        for (int i = 0; i < PERIMETER_SAMPLES; i++) {
+            double angle = 2 * Math.PI * i / PERIMETER_SAMPLES;
+            SAMPLE_NORTH[i] = Math.cos(angle);
+            SAMPLE_EAST[i] = Math.sin(angle);
+        }
+        double goldenAngle = Math.PI * (3 - Math.sqrt(5));
+        for (int i = 0; i < AREA_SAMPLES; i++) {
+            double radius = Math.sqrt((i + 0.5) / AREA_SAMPLES);
+            SAMPLE_NORTH[PERIMETER_SAMPLES + i] = radius * Math.cos(i * goldenAngle);
+            SAMPLE_EAST[PERIMETER_SAMPLES + i] = radius * Math.sin(i * goldenAngle);
+        }
+    }
+    
+    private final Object memoLock = new Object();
+    private int memoKind = MEMO_NONE;
+    private int memoFrom;
+    private int memoTo;
+    private double memoLatitude;
+    private double memoLongitude;
+    private double memoLongitudeScale;
+    private int memoCountry;
+    private long cacheHits;
+    private long cacheMisses;
     
     static {
         // North America
@@ -92,79 +167,406 @@ public class CountryDetector {
         COUNTRY_BOUNDARIES.put("Kuwait", new double[]{28.524, 30.095, 46.555, 48.431});
         COUNTRY_BOUNDARIES.put("Qatar", new double[]{24.482, 26.154, 50.757, 51.636});
         COUNTRY_BOUNDARIES.put("Bahrain", new double[]{25.796, 26.282, 50.450, 50.664});
+        
+        COUNTRY_INDEX = new BoxGridIndex(COUNTRY_BOUNDARIES.values().toArray(new double[0][]));
+        BOX_COUNTRY_IDS = new int[COUNTRY_BOUNDARIES.size()];
+        int box = 0;
+        for (String country : COUNTRY_BOUNDARIES.keySet()) {
+            BOX_COUNTRY_IDS[box++] = CountryCodes.indexOfKey(country);
+        }
+        
+        COUNTRY_NAMES = new String[UNKNOWN_COUNTRY + 1];
+        for (int id = 0; id < UNKNOWN_COUNTRY; id++) {
+            COUNTRY_NAMES[id] = CountryCodes.getKey(id);
+        }
+        COUNTRY_NAMES[UNKNOWN_COUNTRY] = UNKNOWN_COUNTRY_NAME;
+    }
+    
+    /**
+     * Bounding boxes only.
+     */
+    public CountryDetector() {
+        this((Context) null);
     }
     
+    /**
+     * Uses the packaged border polygons when available, falling back to bounding boxes.
+     */
+    public CountryDetector(Context context) {
+        this.context = context != null ? context.getApplicationContext() : null;
+    }
+    
+    CountryDetector(CountryBorders borders, GeoCellTable cells) {
+        this.context = null;
+        useGeometry(borders, cells);
+        this.geometryLoaded = true;
+    }
+    
+    private void ensureGeometryLoaded() {
+        if (!geometryLoaded) {
+            synchronized (this) {
+                if (!geometryLoaded) {
+                    if (context != null) {
+                        useGeometry(CountryBorders.load(context), GeoCellTable.load(context));
+                    }
+                    geometryLoaded = true;
+                }
+            }
+        }
+    }
+    
+    private void useGeometry(CountryBorders borders, GeoCellTable cells) {
+        List<String> names = new ArrayList<>(Arrays.asList(COUNTRY_NAMES));
+        if (borders != null) {
+            borderCountryIds = new int[borders.getCountryCount()];
+            for (int i = 0; i < borderCountryIds.length; i++) {
+                borderCountryIds[i] = internCountry(names, borders.getCountryName(i));
+            }
+        }
+        if (cells != null) {
+            cellCountryIds = new int[cells.getCountryCount()];
+            for (int i = 0; i < cellCountryIds.length; i++) {
+                cellCountryIds[i] = internCountry(names, cells.getCountryName(i));
+            }
+        }
+        this.borders = borders;
+        this.cells = cells;
+        this.countryNames = names.toArray(new String[0]);
+    }
+    
+    private static int internCountry(List<String> names, String name) {
+        // Datasets may spell a country differently ("United States of America")
+        int id = CountryCodes.findId(name);
+        if (id != CountryCodes.NOT_FOUND) {
+            return id;
+        }
+        id = names.indexOf(name);
+        if (id < 0) {
+            names.add(name);
+            id = names.size() - 1;
+        }
+        return id;
+    }
+    
+    /**
+     * Country key for the coordinates, as used in emergency_contacts.json. Convenience wrapper
+     * around {@link #getCountryIdFromCoordinates(double, double)}.
+     */
     public String getCountryFromCoordinates(double latitude, double longitude) {
-        Log.d(TAG, "Detecting country for coordinates: " + latitude + ", " + longitude);
-        
-        // Check against all country boundaries
-        for (Map.Entry<String, double[]> entry : COUNTRY_BOUNDARIES.entrySet()) {
-            String country = entry.getKey();
-            double[] bounds = entry.getValue();
-            
-            double minLat = bounds[0];
-            double maxLat = bounds[1];
-            double minLng = bounds[2];
-            double maxLng = bounds[3];
-            
-            // Handle longitude wrap-around (e.g., for Russia)
-            boolean longitudeMatch;
-            if (minLng > maxLng) {
-                // Crosses 180° meridian
-                longitudeMatch = (longitude >= minLng || longitude <= maxLng);
-            } else {
-                longitudeMatch = (longitude >= minLng && longitude <= maxLng);
+        String country = getCountryName(getCountryIdFromCoordinates(latitude, longitude));
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Country for " + latitude + ", " + longitude + ": " + country);
+        }
+        return country;
+    }
+    
+    /**
+     * Name for an id returned by {@link #getCountryIdFromCoordinates(double, double)}. Ids below
+     * {@link CountryCodes#size()} are CountryCodes ids, so the name is the country key.
+     */
+    public String getCountryName(int countryId) {
+        String[] names = countryNames;
+        return countryId >= 0 && countryId < names.length ? names[countryId] : UNKNOWN_COUNTRY_NAME;
+    }
+    
+    /**
+     * Detects the country for a location fix. This is the hot path: it allocates nothing and does
+     * not log, and returns a dense {@link CountryCodes} id ({@link #UNKNOWN_COUNTRY} when nothing
+     * matches) that {@link #getCountryName(int)} resolves on demand.
+     */
+    public int getCountryIdFromCoordinates(double latitude, double longitude) {
+        long start = SosTrace.beginSection(SosTrace.COUNTRY_LOOKUP);
+        try {
+            return findCountryId(latitude, longitude);
+        } finally {
+            SosTrace.endSection(SosTrace.COUNTRY_LOOKUP, start);
+        }
+    }
+    
+    private int findCountryId(double latitude, double longitude) {
+        ensureGeometryLoaded();
+        int cached = getMemoizedCountry(latitude, longitude);
+        if (cached >= 0) {
+            return cached;
+        }
+        return resolveCountryId(latitude, longitude, true);
+    }
+    
+    private int resolveCountryId(double latitude, double longitude, boolean remember) {
+        // Polygons are exact where boxes overlap (Vienna, Geneva, the Gulf states...).
+        // The cell table answers most fixes with one binary search and leaves only cells
+        // along a border to the polygons.
+        if (cells != null) {
+            int range = cells.findRange(cells.cellKey(latitude, longitude));
+            int cell = cells.getRangeValue(range);
+            if (cell >= 0) {
+                int country = cellCountryIds[cell];
+                if (remember) {
+                    memoize(MEMO_CELL_RANGE, cells.getRangeStart(range), cells.getRangeEnd(range),
+                            latitude, longitude, country);
+                }
+                return country;
+            }
+            if (cell == GeoCellTable.BORDER) {
+                int country = findCountryInBorders(latitude, longitude, remember);
+                if (country >= 0) {
+                    return country;
+                }
             }
-            
-            if (latitude >= minLat && latitude <= maxLat && longitudeMatch) {
-                Log.d(TAG, "Country detected: " + country);
+        } else {
+            int country = findCountryInBorders(latitude, longitude, remember);
+            if (country >= 0) {
                 return country;
             }
         }
         
+        // Only the boxes registered in this grid cell can contain the point
+        int box = COUNTRY_INDEX.find(latitude, longitude);
         // If no exact match found, try regional fallbacks
-        String region = getRegionFallback(latitude, longitude);
-        Log.d(TAG, "No exact match found, using regional fallback: " + region);
-        return region;
+        int country = box >= 0 ? BOX_COUNTRY_IDS[box] : getRegionFallback(latitude, longitude);
+        if (remember) {
+            memoize(MEMO_NEARBY, 0, 0, latitude, longitude, country);
+        }
+        return country;
     }
     
-    private String getRegionFallback(double latitude, double longitude) {
+    /**
+     * Countries overlapping the accuracy circle of a fix, most likely first, with the fraction of
+     * the circle that falls in each. A fix whose circle crosses a border (Strasbourg, Geneva...)
+     * returns every country it touches, so callers can offer both sets of numbers without
+     * waiting for a tighter fix. Always returns at least the country at the centre.
+     */
+    public List<CountryCandidate> getCountryCandidates(double latitude, double longitude, float accuracyMeters) {
+        long start = SosTrace.beginSection(SosTrace.COUNTRY_LOOKUP);
+        try {
+            return findCountryCandidates(latitude, longitude, accuracyMeters);
+        } finally {
+            SosTrace.endSection(SosTrace.COUNTRY_LOOKUP, start);
+        }
+    }
+    
+    private List<CountryCandidate> findCountryCandidates(double latitude, double longitude, float accuracyMeters) {
+        // Inside this section already; don't count the centre as a lookup of its own
+        int center = findCountryId(latitude, longitude);
+        List<CountryCandidate> candidates = new ArrayList<>();
+        if (!(accuracyMeters > 0)) {
+            candidates.add(new CountryCandidate(center, getCountryName(center), 1.0));
+            return candidates;
+        }
+        
+        double northScale = accuracyMeters / METERS_PER_DEGREE;
+        double eastScale = accuracyMeters / (METERS_PER_DEGREE
+                * Math.max(0.01, Math.cos(Math.toRadians(latitude))));
+        int[] ids = new int[SAMPLE_NORTH.length + 1];
+        int[] counts = new int[SAMPLE_NORTH.length + 1];
+        int distinct = 0;
+        int areaSamples = 0;
+        boolean rimDiffers = false;
+        for (int i = 0; i < SAMPLE_NORTH.length; i++) {
+            if (i == PERIMETER_SAMPLES && !rimDiffers) {
+                // The whole rim agrees with the centre
+                break;
+            }
+            double sampleLatitude = Math.max(-90.0, Math.min(90.0, latitude + SAMPLE_NORTH[i] * northScale));
+            double sampleLongitude = wrapLongitude(longitude + SAMPLE_EAST[i] * eastScale);
+            int country = resolveCountryId(sampleLatitude, sampleLongitude, false);
+            if (i < PERIMETER_SAMPLES) {
+                rimDiffers |= country != center;
+                continue;
+            }
+            areaSamples++;
+            if (distinct == 0) {
+                ids[0] = country;
+                counts[0] = 1;
+                distinct = 1;
+                continue;
+            }
+            int slot = 0;
+            while (slot < distinct && ids[slot] != country) {
+                slot++;
+            }
+            if (slot == distinct) {
+                ids[slot] = country;
+                distinct++;
+            }
+            counts[slot]++;
+        }
+        
+        if (areaSamples == 0) {
+            candidates.add(new CountryCandidate(center, getCountryName(center), 1.0));
+            return candidates;
+        }
+        boolean hasCenter = false;
+        for (int i = 0; i < distinct; i++) {
+            double fraction = (double) counts[i] / areaSamples;
+            if (ids[i] == center || fraction >= MIN_CANDIDATE_FRACTION) {
+                candidates.add(new CountryCandidate(ids[i], getCountryName(ids[i]), fraction));
+                hasCenter |= ids[i] == center;
+            }
+        }
+        if (!hasCenter) {
+            candidates.add(new CountryCandidate(center, getCountryName(center), 0.0));
+        }
+        // Largest share first; on a tie the country under the fix itself wins
+        Collections.sort(candidates, (a, b) -> {
+            int byFraction = Double.compare(b.getFraction(), a.getFraction());
+            if (byFraction != 0) {
+                return byFraction;
+            }
+            return Boolean.compare(b.getCountryId() == center, a.getCountryId() == center);
+        });
+        return candidates;
+    }
+    
+    private static double wrapLongitude(double longitude) {
+        if (longitude > 180.0) {
+            return longitude - 360.0;
+        }
+        if (longitude < -180.0) {
+            return longitude + 360.0;
+        }
+        return longitude;
+    }
+    
+    private int findCountryInBorders(double latitude, double longitude, boolean remember) {
+        if (borders == null) {
+            return -1;
+        }
+        int polygon = borders.findCountryIndex(latitude, longitude);
+        if (polygon < 0) {
+            return -1;
+        }
+        int country = borderCountryIds[polygon];
+        if (remember) {
+            memoize(MEMO_POLYGON, polygon, 0, latitude, longitude, country);
+        }
+        return country;
+    }
+    
+    private int getMemoizedCountry(double latitude, double longitude) {
+        synchronized (memoLock) {
+            boolean hit;
+            switch (memoKind) {
+                case MEMO_CELL_RANGE:
+                    int key = cells.cellKey(latitude, longitude);
+                    hit = key >= memoFrom && key < memoTo;
+                    break;
+                case MEMO_POLYGON:
+                    hit = borders.contains(memoFrom, latitude, longitude);
+                    break;
+                case MEMO_NEARBY:
+                    double dLat = (latitude - memoLatitude) * METERS_PER_DEGREE;
+                    double dLng = (longitude - memoLongitude) * memoLongitudeScale;
+                    hit = dLat * dLat + dLng * dLng <= MEMO_RADIUS_METERS * MEMO_RADIUS_METERS;
+                    break;
+                default:
+                    hit = false;
+                    break;
+            }
+            if (hit) {
+                cacheHits++;
+                return memoCountry;
+            }
+            cacheMisses++;
+            return -1;
+        }
+    }
+    
+    private void memoize(int kind, int from, int to, double latitude, double longitude, int country) {
+        synchronized (memoLock) {
+            memoKind = kind;
+            memoFrom = from;
+            memoTo = to;
+            memoLatitude = latitude;
+            memoLongitude = longitude;
+            memoLongitudeScale = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+            memoCountry = country;
+        }
+    }
+    
+    /**
+     * Number of lookups answered from the last resolved cell, polygon or nearby fix.
+     */
+    public long getCacheHits() {
+        synchronized (memoLock) {
+            return cacheHits;
+        }
+    }
+    
+    /**
+     * Number of lookups that needed a full detection.
+     */
+    public long getCacheMisses() {
+        synchronized (memoLock) {
+            return cacheMisses;
+        }
+    }
+    
+    private static int getRegionFallback(double latitude, double longitude) {
         // European region fallback
         if (latitude >= 35.0 && latitude <= 71.0 && longitude >= -10.0 && longitude <= 40.0) {
-            return "Germany"; // Most central European country
+            return GERMANY; // Most central European country
         }
         
         // North American region fallback
         if (latitude >= 14.0 && latitude <= 83.0 && longitude >= -168.0 && longitude <= -52.0) {
-            return "United_States";
+            return UNITED_STATES;
         }
         
         // Asian region fallback
         if (latitude >= -10.0 && latitude <= 81.0 && longitude >= 60.0 && longitude <= 180.0) {
-            return "China";
+            return CHINA;
         }
         
         // African region fallback
         if (latitude >= -35.0 && latitude <= 37.0 && longitude >= -18.0 && longitude <= 51.0) {
-            return "South_Africa";
+            return SOUTH_AFRICA;
         }
         
         // South American region fallback
         if (latitude >= -56.0 && latitude <= 13.0 && longitude >= -82.0 && longitude <= -28.0) {
-            return "Brazil";
+            return BRAZIL;
         }
         
         // Oceania region fallback
         if (latitude >= -47.0 && latitude <= -10.0 && longitude >= 113.0 && longitude <= 179.0) {
-            return "Australia";
+            return AUSTRALIA;
         }
         
         // Default fallback - use universal emergency number
-        return "Unknown";
+        return UNKNOWN_COUNTRY;
     }
     
     public boolean isValidCoordinate(double latitude, double longitude) {
         return latitude >= -90.0 && latitude <= 90.0 && 
                longitude >= -180.0 && longitude <= 180.0;
     }
+    
+    // A country overlapping a fix's accuracy circle
+    public static class CountryCandidate {
+        private final int countryId;
+        private final String countryName;
+        private final double fraction;
+        
+        public CountryCandidate(int countryId, String countryName, double fraction) {
+            this.countryId = countryId;
+            this.countryName = countryName;
+            this.fraction = fraction;
+        }
+        
+        public int getCountryId() {
+            return countryId;
+        }
+        
+        public String getCountryName() {
+            return countryName;
+        }
+        
+        /**
+         * Share of the accuracy circle inside this country, 0..1.
+         */
+        public double getFraction() {
+            return fraction;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,563 @@
+package com.ly2xxx.sos.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Substring, prefix and typo-tolerant search over a fixed list of names, built once when the
+ * list loads. Results are positions in that list. Each position can have aliases ("UK",
+ * "España") that match as if they were its name.
+ *
+ * <p>Names, aliases and queries are compared folded: accents stripped, lower-cased, apostrophes
+ * and dots dropped and any other separators collapsed to one space, so "Côte d'Ivoire" and
+ * "cote divoire" are the same text.
+ *
+ * <p>Every 1-, 2- and 3-character substring of every name has a posting list of the names
+ * containing it. A query of up to three characters is then a single lookup, and a longer one
+ * intersects the posting lists of its trigrams, starting from the shortest, before checking
+ * the few surviving names directly. A prefix trie over the names answers "starts with"
+ * queries by walking the query and reading off the names below the node it ends on.
+ *
+ * <p>Typos are handled one query word at a time, and only for a word that appears in no name
+ * at all: "united k" has no typos to fix, "untied kingdom" has one. Such a word may match an
+ * indexed word within a budget set by its own length, counting a swap of two neighbouring
+ * letters ("Frnace") or a letter too many ("Francee") as one edit. A BK-tree over the names
+ * and their words finds the candidates while visiting only the branches that can hold one.
+ * Words can come in any order: "kingdom united" finds United Kingdom, ahead of any typo.
+ */
+public final class CountrySearchIndex {
+    
+    private static final int[] NO_MATCHES = new int[0];
+    private static final int MAX_GRAM = 3;
+    
+    // Ranks for search(), best first; words matched out of order rank next, then typos by
+    // their distance
+    private static final int RANK_EXACT = 0;
+    private static final int RANK_PREFIX = 1;
+    private static final int RANK_WORD_PREFIX = 2;
+    private static final int RANK_SUBSTRING = 3;
+    private static final int RANK_WORDS = 4;
+    
+    private final int size;
+    // Folded names and aliases, and the position each one belongs to
+    private final String[] terms;
+    private final int[] termPositions;
+    private final Map<Long, int[]> grams;
+    
+    // Trie nodes, stored as parallel arrays; node 0 is the root. The terms below a node are
+    // sortedTerms[rangeFrom[node]..rangeTo[node]).
+    private final char[] nodeChar;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] rangeFrom;
+    private final int[] rangeTo;
+    private final int[] sortedTerms;
+    
+    // BK-tree over the distinct words and whole terms, rooted at word 0; a word's distance is
+    // the edit distance to its parent. wordTerms lists the terms each word came from.
+    private final String[] words;
+    private final int[][] wordTerms;
+    private final int[] wordFirstChild;
+    private final int[] wordNextSibling;
+    private final int[] wordDistance;
+    
+    public CountrySearchIndex(String[] names) {
+        this(names, null);
+    }
+    
+    /**
+     * @param aliases other names for each position, parallel to names; null, or null entries,
+     *                where there are none
+     */
+    public CountrySearchIndex(String[] names, String[][] aliases) {
+        size = names.length;
+        List<String> termList = new ArrayList<>(names.length);
+        List<Integer> positionList = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            termList.add(normalize(names[i]));
+            positionList.add(i);
+        }
+        if (aliases != null) {
+            for (int i = 0; i < aliases.length; i++) {
+                if (aliases[i] == null) {
+                    continue;
+                }
+                for (String alias : aliases[i]) {
+                    String term = normalize(alias);
+                    if (!term.isEmpty()) {
+                        termList.add(term);
+                        positionList.add(i);
+                    }
+                }
+            }
+        }
+        terms = termList.toArray(new String[0]);
+        termPositions = toArray(positionList);
+        grams = buildGrams(terms);
+        
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> terms[a].compareTo(terms[b]));
+        sortedTerms = new int[order.length];
+        int nodeCount = 1;
+        for (int i = 0; i < order.length; i++) {
+            sortedTerms[i] = order[i];
+            nodeCount += terms[order[i]].length();
+        }
+        
+        nodeChar = new char[nodeCount];
+        firstChild = new int[nodeCount];
+        nextSibling = new int[nodeCount];
+        rangeFrom = new int[nodeCount];
+        rangeTo = new int[nodeCount];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        rangeTo[0] = order.length;
+        int used = 1;
+        for (int i = 0; i < order.length; i++) {
+            String term = terms[sortedTerms[i]];
+            int node = 0;
+            for (int c = 0; c < term.length(); c++) {
+                int child = findChild(node, term.charAt(c));
+                if (child < 0) {
+                    // Terms are sorted, so a new child always comes after its siblings and
+                    // every term below it follows this one
+                    child = used++;
+                    nodeChar[child] = term.charAt(c);
+                    rangeFrom[child] = i;
+                    appendChild(node, child);
+                }
+                rangeTo[child] = i + 1;
+                node = child;
+            }
+        }
+        
+        Map<String, List<Integer>> wordSources = new LinkedHashMap<>();
+        for (int t = 0; t < terms.length; t++) {
+            addWord(wordSources, terms[t], t);
+            if (terms[t].indexOf(' ') >= 0) {
+                for (String word : terms[t].split(" ")) {
+                    addWord(wordSources, word, t);
+                }
+            }
+        }
+        words = wordSources.keySet().toArray(new String[0]);
+        wordTerms = new int[words.length][];
+        wordFirstChild = new int[words.length];
+        wordNextSibling = new int[words.length];
+        wordDistance = new int[words.length];
+        Arrays.fill(wordFirstChild, -1);
+        Arrays.fill(wordNextSibling, -1);
+        int[][] rows = new int[2][];
+        int w = 0;
+        for (List<Integer> sources : wordSources.values()) {
+            wordTerms[w] = toArray(sources);
+            if (w > 0) {
+                insertWord(w, rows);
+            }
+            w++;
+        }
+    }
+    
+    /**
+     * Text as the index compares it: accents stripped, lower-cased, apostrophes and dots
+     * dropped, other separators collapsed to single spaces and trimmed.
+     */
+    public static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        boolean separator = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (separator && folded.length() > 0) {
+                    folded.append(' ');
+                }
+                separator = false;
+                folded.append(Character.toLowerCase(c));
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK
+                    && c != '\'' && c != '’' && c != '.') {
+                separator = true;
+            }
+        }
+        return folded.toString();
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Positions whose name or an alias contains the query, in ascending order. An empty query
+     * matches everything.
+     */
+    public int[] find(String query) {
+        String needle = normalize(query);
+        if (needle.isEmpty()) {
+            return all();
+        }
+        return toPositions(findTerms(needle));
+    }
+    
+    /**
+     * Positions whose name or an alias starts with the query, in ascending order, in
+     * O(|query| + matches).
+     */
+    public int[] findPrefix(String query) {
+        String prefix = normalize(query);
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node >= 0; i++) {
+            node = findChild(node, prefix.charAt(i));
+        }
+        if (node < 0) {
+            return NO_MATCHES;
+        }
+        return toPositions(Arrays.copyOfRange(sortedTerms, rangeFrom[node], rangeTo[node]));
+    }
+    
+    /**
+     * Positions matching the query, best first: exact names, then names starting with the
+     * query, then names with a word starting with it, then names containing it. Only when no
+     * name contains the query, names with every query word in any order, then within a few
+     * typos of it, closest first. Ties keep list
+     * order. An empty query matches everything, in list order.
+     */
+    public int[] search(String query) {
+        String needle = normalize(query);
+        if (needle.isEmpty()) {
+            return all();
+        }
+        
+        int[] ranks = new int[size];
+        Arrays.fill(ranks, Integer.MAX_VALUE);
+        for (int term : findTerms(needle)) {
+            rank(ranks, term, substringRank(terms[term], needle));
+        }
+        if (!hasMatch(ranks)) {
+            rankTypos(ranks, needle.split(" "));
+        }
+        
+        int found = 0;
+        for (int rank : ranks) {
+            if (rank != Integer.MAX_VALUE) {
+                found++;
+            }
+        }
+        // (rank, position) pairs packed into longs, so sorting keeps ties in list order
+        long[] ranked = new long[found];
+        found = 0;
+        for (int position = 0; position < size; position++) {
+            if (ranks[position] != Integer.MAX_VALUE) {
+                ranked[found++] = ((long) ranks[position] << 32) | position;
+            }
+        }
+        Arrays.sort(ranked);
+        int[] matches = new int[found];
+        for (int i = 0; i < found; i++) {
+            matches[i] = (int) ranked[i];
+        }
+        return matches;
+    }
+    
+    // Ranks the positions with a term matching every query word, each either as a substring
+    // or, for a word no term contains, within its typo budget; by the typos needed in all
+    private void rankTypos(int[] ranks, String[] queryWords) {
+        // Edits each term needs so far, summed over the query words; -1 once a word misses it
+        int[] termEdits = new int[terms.length];
+        int[][] rows = new int[2][];
+        int[] stack = new int[words.length];
+        for (String queryWord : queryWords) {
+            int[] wordEdits = new int[terms.length];
+            Arrays.fill(wordEdits, Integer.MAX_VALUE);
+            int[] containing = findTerms(queryWord);
+            if (containing.length > 0) {
+                for (int term : containing) {
+                    wordEdits[term] = 0;
+                }
+            } else {
+                int maxEdits = maxEdits(queryWord.length());
+                if (maxEdits == 0 || words.length == 0) {
+                    return;
+                }
+                // A swap costs 1 here but 2 in the tree's plain edit distance, so the tree is
+                // searched twice as wide and the candidates checked with swaps allowed
+                int radius = 2 * maxEdits;
+                int depth = 0;
+                stack[depth++] = 0;
+                while (depth > 0) {
+                    int word = stack[--depth];
+                    int distance = editDistance(words[word], queryWord, rows);
+                    if (distance <= radius) {
+                        int edits = typoDistance(words[word], queryWord);
+                        if (edits <= maxEdits) {
+                            for (int term : wordTerms[word]) {
+                                wordEdits[term] = Math.min(wordEdits[term], edits);
+                            }
+                        }
+                    }
+                    // Only children within radius of this word's distance can be close enough
+                    for (int child = wordFirstChild[word]; child >= 0; child = wordNextSibling[child]) {
+                        if (Math.abs(wordDistance[child] - distance) <= radius) {
+                            stack[depth++] = child;
+                        }
+                    }
+                }
+            }
+            for (int term = 0; term < terms.length; term++) {
+                termEdits[term] = termEdits[term] < 0 || wordEdits[term] == Integer.MAX_VALUE
+                        ? -1 : termEdits[term] + wordEdits[term];
+            }
+        }
+        for (int term = 0; term < terms.length; term++) {
+            if (termEdits[term] >= 0) {
+                rank(ranks, term, RANK_WORDS + termEdits[term]);
+            }
+        }
+    }
+    
+    private static boolean hasMatch(int[] ranks) {
+        for (int rank : ranks) {
+            if (rank != Integer.MAX_VALUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Typos allowed in a query word of this many characters; short words must match exactly
+    private static int maxEdits(int length) {
+        if (length < 4) {
+            return 0;
+        }
+        return length < 8 ? 1 : 2;
+    }
+    
+    private void rank(int[] ranks, int term, int rank) {
+        int position = termPositions[term];
+        if (rank < ranks[position]) {
+            ranks[position] = rank;
+        }
+    }
+    
+    private static int substringRank(String term, String needle) {
+        if (term.equals(needle)) {
+            return RANK_EXACT;
+        }
+        if (term.startsWith(needle)) {
+            return RANK_PREFIX;
+        }
+        if (term.contains(" " + needle)) {
+            return RANK_WORD_PREFIX;
+        }
+        return RANK_SUBSTRING;
+    }
+    
+    // Terms containing needle, which must already be normalized and non-empty
+    private int[] findTerms(String needle) {
+        if (needle.length() <= MAX_GRAM) {
+            int[] postings = grams.get(gramKey(needle, 0, needle.length()));
+            return postings != null ? postings : NO_MATCHES;
+        }
+        
+        // Every trigram of the query must occur in a match; the rarest one bounds the work
+        int[][] lists = new int[needle.length() - MAX_GRAM + 1][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = grams.get(gramKey(needle, i, MAX_GRAM));
+            if (lists[i] == null) {
+                return NO_MATCHES;
+            }
+        }
+        Arrays.sort(lists, (a, b) -> a.length - b.length);
+        
+        int[] matches = new int[lists[0].length];
+        int found = 0;
+        for (int term : lists[0]) {
+            if (inAll(lists, term) && terms[term].contains(needle)) {
+                matches[found++] = term;
+            }
+        }
+        return Arrays.copyOf(matches, found);
+    }
+    
+    private int[] toPositions(int[] matchedTerms) {
+        boolean[] matched = new boolean[size];
+        int found = 0;
+        for (int term : matchedTerms) {
+            if (!matched[termPositions[term]]) {
+                matched[termPositions[term]] = true;
+                found++;
+            }
+        }
+        int[] matches = new int[found];
+        found = 0;
+        for (int position = 0; position < size; position++) {
+            if (matched[position]) {
+                matches[found++] = position;
+            }
+        }
+        return matches;
+    }
+    
+    private int[] all() {
+        int[] matches = new int[size];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = i;
+        }
+        return matches;
+    }
+    
+    private static boolean inAll(int[][] lists, int term) {
+        for (int i = 1; i < lists.length; i++) {
+            if (Arrays.binarySearch(lists[i], term) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private int findChild(int node, char c) {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            if (nodeChar[child] == c) {
+                return child;
+            }
+        }
+        return -1;
+    }
+    
+    private void appendChild(int node, int child) {
+        int last = firstChild[node];
+        if (last < 0) {
+            firstChild[node] = child;
+            return;
+        }
+        while (nextSibling[last] >= 0) {
+            last = nextSibling[last];
+        }
+        nextSibling[last] = child;
+    }
+    
+    private static void addWord(Map<String, List<Integer>> wordSources, String word, int term) {
+        List<Integer> sources = wordSources.get(word);
+        if (sources == null) {
+            sources = new ArrayList<>(1);
+            wordSources.put(word, sources);
+        }
+        if (sources.isEmpty() || sources.get(sources.size() - 1) != term) {
+            sources.add(term);
+        }
+    }
+    
+    private void insertWord(int word, int[][] rows) {
+        int node = 0;
+        while (true) {
+            int distance = editDistance(words[node], words[word], rows);
+            int child = wordFirstChild[node];
+            while (child >= 0 && wordDistance[child] != distance) {
+                child = wordNextSibling[child];
+            }
+            if (child < 0) {
+                wordDistance[word] = distance;
+                wordNextSibling[word] = wordFirstChild[node];
+                wordFirstChild[node] = word;
+                return;
+            }
+            node = child;
+        }
+    }
+    
+    // Levenshtein distance, reusing the two DP rows held in rows between calls
+    private static int editDistance(String a, String b, int[][] rows) {
+        if (rows[0] == null || rows[0].length <= b.length()) {
+            rows[0] = new int[b.length() + 1];
+            rows[1] = new int[b.length() + 1];
+        }
+        int[] previous = rows[0];
+        int[] current = rows[1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+    
+    // Optimal string alignment distance: Levenshtein plus swaps of two neighbouring characters
+    private static int typoDistance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(d[i - 1][j - 1] + cost, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+    
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+    
+    private static Map<Long, int[]> buildGrams(String[] terms) {
+        Map<Long, List<Integer>> postings = new HashMap<>();
+        for (int term = 0; term < terms.length; term++) {
+            String text = terms[term];
+            for (int length = 1; length <= MAX_GRAM; length++) {
+                for (int start = 0; start + length <= text.length(); start++) {
+                    List<Integer> list = postings.get(gramKey(text, start, length));
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        postings.put(gramKey(text, start, length), list);
+                    }
+                    // Terms arrive in ascending order; a term repeating a gram adds it once
+                    if (list.isEmpty() || list.get(list.size() - 1) != term) {
+                        list.add(term);
+                    }
+                }
+            }
+        }
+        
+        Map<Long, int[]> grams = new HashMap<>(postings.size() * 2);
+        for (Map.Entry<Long, List<Integer>> entry : postings.entrySet()) {
+            grams.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return grams;
+    }
+    
+    // Up to three UTF-16 units in one long, tagged with the length so "a" and "a\0" differ
+    private static long gramKey(String text, int start, int length) {
+        long key = length;
+        for (int i = 0; i < length; i++) {
+            key = (key << 16) | text.charAt(start + i);
+        }
+        return key;
+    }
+}
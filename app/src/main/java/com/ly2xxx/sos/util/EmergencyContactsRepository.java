@@ -0,0 +1,496 @@
+package com.ly2xxx.sos.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.ly2xxx.sos.model.EmergencyContact;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process-wide source of emergency numbers. The packaged data is opened once, on a background
+ * thread, into an immutable {@link Snapshot} that every screen shares. Opening only maps the
+ * packed table; each country's record is decoded and sanitised the first time it is looked up.
+ */
+public final class EmergencyContactsRepository {
+    
+    private static final String TAG = "EmergencyContactsRepository";
+    private static final String ASSETS_FILE = "emergency_contacts.json";
+    // Field names in the JSON, in the order Snapshot expects the numbers
+    private static final String[] SERVICES = {"police", "ambulance", "fire", "general"};
+    
+    // One loader thread, started on demand and let go once the load is done
+    private static final Executor LOADER = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> new Thread(r, "EmergencyContactsLoader"));
+    
+    private static volatile EmergencyContactsRepository instance;
+    
+    // What a failed load leaves behind: no contacts, isLoaded() false
+    private static final Snapshot EMPTY = new Snapshot(Collections.<String, String[]>emptyMap(), false);
+    
+    private final Context context;
+    // Replaced by loadAsync() after a failed load, so the next attempt can start afresh
+    private volatile FutureTask<Snapshot> loadTask;
+    private final List<OnLoadedListener> listeners = new ArrayList<>();
+    private boolean loadStarted = false;
+    
+    /**
+     * Called on the main thread once the contacts are available.
+     */
+    public interface OnLoadedListener {
+        void onContactsLoaded(Snapshot snapshot);
+    }
+    
+    // Tests build their own; everything else goes through getInstance
+    EmergencyContactsRepository(Context context) {
+        this.context = context;
+        this.loadTask = newLoadTask();
+    }
+    
+    private FutureTask<Snapshot> newLoadTask() {
+        return new FutureTask<Snapshot>(this::load) {
+            @Override
+            protected void done() {
+                notifyListeners(result(this));
+            }
+        };
+    }
+    
+    public static EmergencyContactsRepository getInstance(Context context) {
+        EmergencyContactsRepository repository = instance;
+        if (repository == null) {
+            synchronized (EmergencyContactsRepository.class) {
+                repository = instance;
+                if (repository == null) {
+                    // Hold the application context so a screen passing itself in is not leaked
+                    repository = new EmergencyContactsRepository(context.getApplicationContext());
+                    instance = repository;
+                }
+            }
+        }
+        return repository;
+    }
+    
+    /**
+     * Starts reading the contacts on the loader thread if nobody has yet, or if the last
+     * attempt failed. Safe to call from every screen; once loaded, the data is never read again.
+     */
+    public Future<Snapshot> loadAsync() {
+        synchronized (listeners) {
+            if (loadTask.isDone() && !result(loadTask).isLoaded()) {
+                Log.i(TAG, "Retrying emergency contacts load");
+                loadTask = newLoadTask();
+                loadStarted = false;
+            }
+            if (!loadStarted) {
+                loadStarted = true;
+                LOADER.execute(loadTask);
+            }
+            return loadTask;
+        }
+    }
+    
+    /**
+     * The loaded contacts, waiting for the load if it is still running. A failed load is
+     * remembered as an empty snapshot rather than retried on every lookup; loadAsync() retries.
+     */
+    public Snapshot getSnapshot() {
+        FutureTask<Snapshot> task = loadTask;
+        if (!task.isDone()) {
+            // Load on this thread rather than queue behind the executor; does nothing when the
+            // loader has already picked the task up, in which case get() waits for it
+            task.run();
+        }
+        return result(task);
+    }
+    
+    private static Snapshot result(FutureTask<Snapshot> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "Interrupted while waiting for emergency contacts");
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error loading emergency contacts", e.getCause());
+        }
+        return EMPTY;
+    }
+    
+    /**
+     * The contacts if they have finished loading, otherwise null. Never blocks.
+     */
+    public Snapshot peekSnapshot() {
+        FutureTask<Snapshot> task = loadTask;
+        return task.isDone() ? result(task) : null;
+    }
+    
+    /**
+     * Delivers the contacts to the listener on the main thread, starting the load if needed.
+     */
+    public void whenLoaded(OnLoadedListener listener) {
+        synchronized (listeners) {
+            // Also retries a failed load
+            loadAsync();
+            if (!loadTask.isDone()) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        new Handler(Looper.getMainLooper()).post(() -> listener.onContactsLoaded(getSnapshot()));
+    }
+    
+    private void notifyListeners(Snapshot loaded) {
+        synchronized (listeners) {
+            for (OnLoadedListener listener : listeners) {
+                new Handler(Looper.getMainLooper()).post(() -> listener.onContactsLoaded(loaded));
+            }
+            listeners.clear();
+        }
+    }
+    
+    private Snapshot load() {
+        Snapshot snapshot = EMPTY;
+        long start = SosTrace.beginSection(SosTrace.CONTACTS_LOAD);
+        try {
+            snapshot = openSnapshot();
+        } finally {
+            SosTrace.endSection(SosTrace.CONTACTS_LOAD, start);
+            SosTrace.mark(snapshot.isLoaded() ? SosTrace.CONTACTS_LOADED : SosTrace.CONTACTS_LOAD_FAILED);
+        }
+        return snapshot;
+    }
+    
+    private Snapshot openSnapshot() {
+        // Prefer the packed table: mapping it is far cheaper than reading and parsing the JSON
+        EmergencyContactsTable table = EmergencyContactsTable.open(context);
+        if (table != null) {
+            Log.d(TAG, "Emergency contacts table opened. Total records: " + table.size());
+            return new Snapshot(table, true);
+        }
+        
+        try (InputStream in = context.getAssets().open(ASSETS_FILE)) {
+            Map<String, String[]> raw = readEmergencyContacts(in);
+            Log.d(TAG, "Emergency contacts loaded successfully. Total records: " + raw.size());
+            return new Snapshot(raw, true);
+        } catch (IOException | IllegalStateException e) {
+            // JsonReader reports malformed input as either
+            Log.e(TAG, "Error loading emergency contacts JSON", e);
+        }
+        return EMPTY;
+    }
+    
+    /**
+     * Streams emergency_contacts.json straight into per-country number arrays (police,
+     * ambulance, fire, general), without holding the file or a JSON tree in memory. Entries
+     * that are not objects and fields that are not strings are skipped.
+     */
+    static Map<String, String[]> readEmergencyContacts(InputStream in) throws IOException {
+        Map<String, String[]> raw = new LinkedHashMap<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String country = reader.nextName();
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                Log.w(TAG, "Skipping malformed entry: " + country);
+                reader.skipValue();
+                continue;
+            }
+            
+            String[] numbers = new String[SERVICES.length];
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int service = serviceIndex(reader.nextName());
+                JsonToken token = reader.peek();
+                if (service >= 0 && (token == JsonToken.STRING || token == JsonToken.NUMBER)) {
+                    numbers[service] = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            raw.put(country, numbers);
+        }
+        reader.endObject();
+        return raw;
+    }
+    
+    private static int serviceIndex(String name) {
+        for (int i = 0; i < SERVICES.length; i++) {
+            if (SERVICES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Sanitize country name to prevent injection attacks
+     */
+    public static String sanitizeCountryName(String countryKey) {
+        return InputValidator.sanitizeCountryName(countryKey);
+    }
+    
+    /**
+     * Sanitize and validate phone numbers
+     */
+    public static String sanitizePhoneNumber(String phoneNumber) {
+        return InputValidator.sanitizePhoneNumber(phoneNumber);
+    }
+    
+    /**
+     * Country records as stored, sorted by key: police, ambulance, fire and general numbers,
+     * unchecked, with null for a missing one. Implemented by the mapped table and by the parsed
+     * JSON it falls back to.
+     */
+    interface Records {
+        int size();
+        
+        /**
+         * Index of the exact key, or -1.
+         */
+        int find(String key);
+        
+        String getKey(int index);
+        
+        String[] getNumbers(int index);
+    }
+    
+    // Records parsed from the JSON source
+    static final class MapRecords implements Records {
+        
+        private final String[] keys;
+        private final String[][] numbers;
+        
+        MapRecords(Map<String, String[]> raw) {
+            keys = raw.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            numbers = new String[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                numbers[i] = raw.get(keys[i]);
+            }
+        }
+        
+        @Override
+        public int size() {
+            return keys.length;
+        }
+        
+        @Override
+        public int find(String key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? index : -1;
+        }
+        
+        @Override
+        public String getKey(int index) {
+            return keys[index];
+        }
+        
+        @Override
+        public String[] getNumbers(int index) {
+            return numbers[index];
+        }
+    }
+    
+    /**
+     * Immutable view of the contacts as loaded. Raw keys (e.g. "United_States") map to
+     * sanitised contacts, decoded from the records on first lookup and kept. Numbers that fail
+     * {@link #sanitizePhoneNumber} are dropped, so the contact's own "112" default applies.
+     */
+    public static final class Snapshot {
+        
+        // Cached in place of a country whose record is missing or invalid
+        private static final EmergencyContact NO_CONTACT = new EmergencyContact(null, null, null, null);
+        
+        private final Records records;
+        // Indexed by CountryCodes id; null until looked up
+        private final AtomicReferenceArray<EmergencyContact> byCountryId =
+                new AtomicReferenceArray<>(CountryCodes.size());
+        private final boolean loaded;
+        // Every record decoded, for the contacts browser; built on first use
+        private volatile List<Entry> entries;
+        private CountrySearchIndex searchIndex;
+        
+        Snapshot(Records records, boolean loaded) {
+            this.records = records;
+            this.loaded = loaded;
+        }
+        
+        // raw maps each key to its police, ambulance, fire and general numbers as stored
+        Snapshot(Map<String, String[]> raw, boolean loaded) {
+            this(new MapRecords(raw), loaded);
+        }
+        
+        private static Entry sanitize(String key, String[] numbers) {
+            String displayName = sanitizeCountryName(key);
+            if (displayName == null || numbers == null || numbers.length != 4) {
+                Log.w(TAG, "Skipping invalid country: " + key);
+                return null;
+            }
+            
+            String police = sanitizePhoneNumber(numbers[0]);
+            String ambulance = sanitizePhoneNumber(numbers[1]);
+            String fire = sanitizePhoneNumber(numbers[2]);
+            String general = sanitizePhoneNumber(numbers[3]);
+            
+            // Only add if at least one emergency number is valid
+            if (police == null && ambulance == null && fire == null && general == null) {
+                Log.w(TAG, "No valid emergency numbers for country: " + displayName);
+                return null;
+            }
+            return new Entry(key, displayName, EmergencyContact.of(police, ambulance, fire, general));
+        }
+        
+        private EmergencyContact decode(String key) {
+            int index = records.find(key);
+            Entry entry = index >= 0 ? sanitize(key, records.getNumbers(index)) : null;
+            return entry != null ? entry.getContact() : null;
+        }
+        
+        public boolean isLoaded() {
+            return loaded;
+        }
+        
+        /**
+         * Number of valid countries. Decodes every record the first time.
+         */
+        public int size() {
+            return getEntries().size();
+        }
+        
+        /**
+         * Contact for any accepted spelling of the country, or null. Case, spaces, underscores
+         * and punctuation are ignored, and ISO 3166 codes and common aliases such as "UK" or
+         * "USA" resolve too; a key CountryCodes does not know must match exactly.
+         */
+        public EmergencyContact getContact(CharSequence name) {
+            if (name == null) {
+                return null;
+            }
+            int countryId = CountryCodes.findId(name);
+            return countryId != CountryCodes.NOT_FOUND ? getContact(countryId) : decode(name.toString());
+        }
+        
+        /**
+         * Contact for a {@link CountryCodes} id, as returned by CountryDetector, or null.
+         */
+        public EmergencyContact getContact(int countryId) {
+            if (countryId < 0 || countryId >= byCountryId.length()) {
+                return null;
+            }
+            EmergencyContact contact = byCountryId.get(countryId);
+            if (contact == null) {
+                // Two threads may both decode it; they get the same pooled contact
+                contact = decode(CountryCodes.getKey(countryId));
+                if (contact == null) {
+                    contact = NO_CONTACT;
+                }
+                byCountryId.set(countryId, contact);
+            }
+            return contact != NO_CONTACT ? contact : null;
+        }
+        
+        /**
+         * Every valid country, alphabetically by display name. Decodes every record the first
+         * time, so only the contacts browser should need it.
+         */
+        public List<Entry> getEntries() {
+            List<Entry> decoded = entries;
+            if (decoded == null) {
+                synchronized (this) {
+                    decoded = entries;
+                    if (decoded == null) {
+                        decoded = decodeAll();
+                        entries = decoded;
+                    }
+                }
+            }
+            return decoded;
+        }
+        
+        private List<Entry> decodeAll() {
+            List<Entry> sorted = new ArrayList<>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                String key = records.getKey(i);
+                Entry entry = sanitize(key, records.getNumbers(i));
+                if (entry == null) {
+                    continue;
+                }
+                sorted.add(entry);
+                if (CountryCodes.indexOfKey(key) == CountryCodes.NOT_FOUND) {
+                    Log.w(TAG, "No country code for: " + key);
+                }
+            }
+            Collections.sort(sorted, (e1, e2) -> e1.getDisplayName().compareToIgnoreCase(e2.getDisplayName()));
+            return Collections.unmodifiableList(sorted);
+        }
+        
+        /**
+         * Search over the display names and country aliases; positions refer to
+         * {@link #getEntries()}. Built on first call, which can take a while: call it off the
+         * main thread. Emergency number lookups never need it.
+         */
+        public CountrySearchIndex getSearchIndex() {
+            List<Entry> sorted = getEntries();
+            synchronized (this) {
+                if (searchIndex == null) {
+                    String[] displayNames = new String[sorted.size()];
+                    String[][] aliases = new String[sorted.size()][];
+                    for (int i = 0; i < displayNames.length; i++) {
+                        displayNames[i] = sorted.get(i).getDisplayName();
+                        int countryId = CountryCodes.indexOfKey(sorted.get(i).getKey());
+                        aliases[i] = countryId != CountryCodes.NOT_FOUND ? CountryCodes.getAliases(countryId) : null;
+                    }
+                    searchIndex = new CountrySearchIndex(displayNames, aliases);
+                }
+                return searchIndex;
+            }
+        }
+    }
+    
+    public static final class Entry {
+        
+        private final String key;
+        private final String displayName;
+        private final EmergencyContact contact;
+        
+        Entry(String key, String displayName, EmergencyContact contact) {
+            this.key = key;
+            this.displayName = displayName;
+            this.contact = contact;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+        
+        public EmergencyContact getContact() {
+            return contact;
+        }
+    }
+}
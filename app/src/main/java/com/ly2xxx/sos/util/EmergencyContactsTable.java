@@ -0,0 +1,185 @@
+package com.ly2xxx.sos.util;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import com.ly2xxx.sos.model.EmergencyContact;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only view of {@value #ASSETS_FILE}, the indexed binary form of emergency_contacts.json
+ * packed at build time (layout documented in {@code app/assets.gradle}). The asset is stored
+ * uncompressed and memory-mapped, so opening it costs a header check; records and number
+ * strings are decoded one at a time when asked for.
+ */
+public class EmergencyContactsTable implements EmergencyContactsRepository.Records {
+    
+    private static final String TAG = "EmergencyContactsTable";
+    static final String ASSETS_FILE = "emergency_contacts.bin";
+    static final int MAGIC = 0x534F5345;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SERVICES = 4;
+    
+    private final ByteBuffer buffer;
+    private final int countryCount;
+    private final int keysOffset;
+    private final int recordsOffset;
+    private final int poolOffset;
+    private final int stringsOffset;
+    // Decoded number strings, shared by every record that uses them
+    private final String[] numbers;
+    
+    EmergencyContactsTable(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an emergency contacts table");
+        }
+        int version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported emergency contacts table version: " + version);
+        }
+        countryCount = buffer.getInt(8);
+        int poolCount = buffer.getInt(12);
+        keysOffset = HEADER_SIZE;
+        recordsOffset = keysOffset + countryCount * 4;
+        poolOffset = recordsOffset + countryCount * SERVICES * 2;
+        stringsOffset = poolOffset + poolCount * 4;
+        if (countryCount < 0 || poolCount < 0 || stringsOffset > buffer.limit()) {
+            throw new IOException("Truncated emergency contacts table");
+        }
+        numbers = new String[poolCount];
+    }
+    
+    /**
+     * Maps the packaged table, or returns null when the build did not ship one so the caller
+     * can fall back to the JSON source.
+     */
+    public static EmergencyContactsTable open(Context context) {
+        try {
+            return new EmergencyContactsTable(map(context));
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No packed emergency contacts table");
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening emergency contacts table", e);
+        }
+        return null;
+    }
+    
+    private static ByteBuffer map(Context context) throws IOException {
+        try (AssetFileDescriptor fd = context.getAssets().openFd(ASSETS_FILE);
+             FileInputStream in = fd.createInputStream()) {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } catch (FileNotFoundException e) {
+            // openFd also fails when the asset was compressed; read it into memory instead
+            try (InputStream in = context.getAssets().open(ASSETS_FILE)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    bytes.write(chunk, 0, read);
+                }
+                return ByteBuffer.wrap(bytes.toByteArray());
+            }
+        }
+    }
+    
+    @Override
+    public int size() {
+        return countryCount;
+    }
+    
+    /**
+     * Index of the exact country key, or -1.
+     */
+    @Override
+    public int find(String key) {
+        int low = 0;
+        int high = countryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKey(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public String getKey(int index) {
+        return readString(stringsOffset + buffer.getInt(keysOffset + index * 4));
+    }
+    
+    public EmergencyContact getContact(int index) {
+        String[] numbers = getNumbers(index);
+        return EmergencyContact.of(numbers[0], numbers[1], numbers[2], numbers[3]);
+    }
+    
+    /**
+     * Police, ambulance, fire and general numbers as stored, with null for a missing one.
+     */
+    @Override
+    public String[] getNumbers(int index) {
+        int record = recordsOffset + index * SERVICES * 2;
+        String[] numbers = new String[SERVICES];
+        for (int service = 0; service < SERVICES; service++) {
+            numbers[service] = getNumber(buffer.getShort(record + service * 2));
+        }
+        return numbers;
+    }
+    
+    private String getNumber(int poolIndex) {
+        if (poolIndex < 0) {
+            return null;
+        }
+        synchronized (numbers) {
+            String number = numbers[poolIndex];
+            if (number == null) {
+                number = readString(stringsOffset + buffer.getInt(poolOffset + poolIndex * 4));
+                numbers[poolIndex] = number;
+            }
+            return number;
+        }
+    }
+    
+    // Compares the stored key with the query without decoding it (keys are plain ASCII)
+    private int compareKey(int index, String key) {
+        int offset = stringsOffset + buffer.getInt(keysOffset + index * 4);
+        int length = buffer.get(offset) & 0xFF;
+        int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++) {
+            int b = buffer.get(offset + 1 + i) & 0xFF;
+            if (b >= 0x80) {
+                return getKey(index).compareTo(key);
+            }
+            int diff = b - key.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length();
+    }
+    
+    private String readString(int offset) {
+        int length = buffer.get(offset) & 0xFF;
+        byte[] utf8 = new byte[length];
+        for (int i = 0; i < length; i++) {
+            utf8[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,181 @@
+package com.ly2xxx.sos.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Country borders rasterised at build time into a quadtree (geohash-like) cell table, packed
+ * into the {@value #ASSETS_FILE} asset next to {@link CountryBorders}.
+ *
+ * <p>Cells are addressed by Morton codes: the lng/lat cell coordinates at {@code bitsPerAxis}
+ * bits each, interleaved into one {@code int}. Coarse cells entirely inside one country cover a
+ * contiguous Morton range, so the table is a sorted array of range starts that partitions the
+ * whole world. A lookup is one binary search over that primitive array. Only cells that still
+ * touch a border at full resolution are marked {@link #BORDER} and need the exact polygons.
+ *
+ * <p>File layout (big-endian):
+ * <pre>
+ * int    magic        0x534F5343 ("SOSC")
+ * short  version      1
+ * byte   bitsPerAxis
+ * int    countryCount
+ * countryCount x UTF name
+ * int    rangeCount
+ * rangeCount x int    range start (Morton code, ascending, first is 0)
+ * rangeCount x short  country index, {@link #NO_COUNTRY} or {@link #BORDER}
+ * </pre>
+ */
+public class GeoCellTable {
+    
+    private static final String TAG = "GeoCellTable";
+    static final String ASSETS_FILE = "country_cells.bin";
+    static final int MAGIC = 0x534F5343;
+    static final int VERSION = 1;
+    static final int MAX_BITS_PER_AXIS = 15;
+    
+    /** Cell is outside every country polygon. */
+    public static final int NO_COUNTRY = -1;
+    /** Cell touches a border; the exact polygons decide. */
+    public static final int BORDER = -2;
+    
+    private final int bitsPerAxis;
+    private final String[] names;
+    private final int[] rangeStarts;
+    private final short[] rangeValues;
+    
+    GeoCellTable(int bitsPerAxis, String[] names, int[] rangeStarts, short[] rangeValues) {
+        this.bitsPerAxis = bitsPerAxis;
+        this.names = names;
+        this.rangeStarts = rangeStarts;
+        this.rangeValues = rangeValues;
+    }
+    
+    /**
+     * Loads the packed cell table, or returns null when the build did not ship one.
+     */
+    public static GeoCellTable load(Context context) {
+        try (InputStream is = context.getAssets().open(ASSETS_FILE)) {
+            GeoCellTable table = read(is);
+            Log.d(TAG, "Loaded " + table.rangeStarts.length + " cell ranges at "
+                    + table.bitsPerAxis + " bits per axis");
+            return table;
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No cell table packaged");
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading cell table", e);
+        }
+        return null;
+    }
+    
+    static GeoCellTable read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a country cell file");
+        }
+        int version = data.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cell file version: " + version);
+        }
+        int bitsPerAxis = data.readUnsignedByte();
+        if (bitsPerAxis < 1 || bitsPerAxis > MAX_BITS_PER_AXIS) {
+            throw new IOException("Unsupported cell resolution: " + bitsPerAxis);
+        }
+        
+        String[] names = new String[data.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = data.readUTF();
+        }
+        
+        int rangeCount = data.readInt();
+        int[] starts = new int[rangeCount];
+        short[] values = new short[rangeCount];
+        for (int i = 0; i < rangeCount; i++) {
+            starts[i] = data.readInt();
+        }
+        for (int i = 0; i < rangeCount; i++) {
+            values[i] = data.readShort();
+        }
+        if (rangeCount == 0 || starts[0] != 0) {
+            throw new IOException("Cell ranges do not cover the world");
+        }
+        return new GeoCellTable(bitsPerAxis, names, starts, values);
+    }
+    
+    /**
+     * Country index for the point, or {@link #NO_COUNTRY} / {@link #BORDER}.
+     */
+    public int lookup(double latitude, double longitude) {
+        return rangeValues[findRange(cellKey(latitude, longitude))];
+    }
+    
+    /**
+     * Index of the range containing the cell key.
+     */
+    int findRange(int cellKey) {
+        int index = Arrays.binarySearch(rangeStarts, cellKey);
+        if (index < 0) {
+            // Insertion point minus one is the range that starts before the key
+            index = -index - 2;
+        }
+        return index;
+    }
+    
+    int getRangeValue(int range) {
+        return rangeValues[range];
+    }
+    
+    int getRangeStart(int range) {
+        return rangeStarts[range];
+    }
+    
+    /**
+     * Exclusive end of the range, i.e. the start of the next one.
+     */
+    int getRangeEnd(int range) {
+        return range + 1 < rangeStarts.length ? rangeStarts[range + 1] : 1 << (2 * bitsPerAxis);
+    }
+    
+    int cellKey(double latitude, double longitude) {
+        return cellKey(latitude, longitude, bitsPerAxis);
+    }
+    
+    public String getCountryName(int country) {
+        return names[country];
+    }
+    
+    public int getCountryCount() {
+        return names.length;
+    }
+    
+    int getRangeCount() {
+        return rangeStarts.length;
+    }
+    
+    /**
+     * Morton code of the cell containing the point at the given resolution.
+     */
+    static int cellKey(double latitude, double longitude, int bitsPerAxis) {
+        int cells = 1 << bitsPerAxis;
+        int x = (int) ((longitude + 180.0) / 360.0 * cells);
+        int y = (int) ((latitude + 90.0) / 180.0 * cells);
+        x = Math.max(0, Math.min(cells - 1, x));
+        y = Math.max(0, Math.min(cells - 1, y));
+        return spreadBits(x) | (spreadBits(y) << 1);
+    }
+    
+    private static int spreadBits(int value) {
+        value &= 0x0000FFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
+}
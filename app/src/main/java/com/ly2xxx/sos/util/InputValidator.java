@@ -0,0 +1,189 @@
+package com.ly2xxx.sos.util;
+
+import android.util.Log;
+
+import java.util.regex.Pattern;
+
+/**
+ * Validation and clean-up for everything the app shows or dials: country names, emergency
+ * numbers, search queries and display text. Shared by the contacts loader, the contact list
+ * and the search box so they all apply the same rules. Every pattern is compiled once here;
+ * String.matches and String.replaceAll would compile a fresh one on every call. Phone numbers,
+ * checked for every row and every tap, skip regexes altogether: one pass over the characters
+ * checks and counts everything, and nothing is allocated unless a number is returned.
+ */
+public final class InputValidator {
+    
+    private static final String TAG = "InputValidator";
+    
+    private static final int MAX_COUNTRY_NAME_LENGTH = 50;
+    private static final int MAX_SEARCH_LENGTH = 100; // Prevent excessive search queries
+    private static final int MAX_DISPLAY_LENGTH = 100;
+    private static final int MIN_NUMBER_LENGTH = 3;
+    private static final int MAX_NUMBER_LENGTH = 20;
+    private static final int MIN_DIGITS = 3;
+    private static final int MAX_DIGITS = 15;
+    
+    private static final Pattern COUNTRY_NAME_PATTERN = Pattern.compile("^[a-zA-Z\\s\\-]+$");
+    private static final Pattern SAFE_SEARCH_PATTERN = Pattern.compile("^[\\p{L}\\p{M}0-9\\s\\-_]+$");
+    private static final Pattern UNSAFE_SEARCH_PATTERN = Pattern.compile("[^\\p{L}\\p{M}0-9\\s\\-_]");
+    private static final Pattern CONTROL_CHARACTERS_PATTERN = Pattern.compile("[\\p{Cntrl}&&[^\r\n\t]]");
+    
+    // What scanPhoneNumber found a number fit for
+    private static final int PHONE_NUMBER = 1; // sanitizePhoneNumber accepts it
+    private static final int DIALABLE = 2; // isValidEmergencyNumber accepts it
+    
+    private InputValidator() {
+    }
+    
+    /**
+     * Display name for a country key ("United_States" becomes "United States"), or null if the
+     * key has anything but letters, spaces, hyphens and underscores. Long names are cut to 50
+     * characters.
+     */
+    public static String sanitizeCountryName(String countryKey) {
+        if (countryKey == null || countryKey.trim().isEmpty()) {
+            return null;
+        }
+        
+        // Replace underscores with spaces and validate characters
+        String countryName = countryKey.replace("_", " ").trim();
+        
+        // Check for valid characters only (letters, spaces, hyphens)
+        if (!COUNTRY_NAME_PATTERN.matcher(countryName).matches()) {
+            return null;
+        }
+        
+        // Limit length to prevent excessive memory usage
+        if (countryName.length() > MAX_COUNTRY_NAME_LENGTH) {
+            return countryName.substring(0, MAX_COUNTRY_NAME_LENGTH);
+        }
+        
+        return countryName;
+    }
+    
+    /**
+     * The trimmed number if it is made of digits, spaces, +, -, ( and ) and has 3 to 15 digits,
+     * with at most one + before them; otherwise null.
+     */
+    public static String sanitizePhoneNumber(String phoneNumber) {
+        return (scanPhoneNumber(phoneNumber) & PHONE_NUMBER) != 0 ? phoneNumber.trim() : null;
+    }
+    
+    /**
+     * Whether the number can be shown and dialled: 3 to 20 characters of digits, spaces, -, (
+     * and ), optionally after a leading +, with 3 to 15 digits in all.
+     */
+    public static boolean isValidEmergencyNumber(String number) {
+        return (scanPhoneNumber(number) & DIALABLE) != 0;
+    }
+    
+    /**
+     * Number to put in a tel: URI, or null. Anything that is not already a valid emergency
+     * number is refused rather than stripped into one, so "call911" never dials 911.
+     */
+    public static String sanitizePhoneNumberForIntent(String number) {
+        // For tel: URIs, we can keep formatting characters
+        return isValidEmergencyNumber(number) ? number.trim() : null;
+    }
+    
+    /**
+     * Checks the number, as trimmed by String.trim(), against both phone number rules in one
+     * pass and returns the PHONE_NUMBER and DIALABLE flags for the rules it meets.
+     */
+    private static int scanPhoneNumber(String number) {
+        if (number == null) {
+            return 0;
+        }
+        int start = 0;
+        int end = number.length();
+        while (start < end && number.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && number.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return 0;
+        }
+        
+        int digits = 0;
+        int pluses = 0;
+        boolean plusAfterDigit = false;
+        boolean dialable = true;
+        for (int i = start; i < end; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '+') {
+                // Only a single + ahead of the digits is a phone number; only a leading one dials
+                pluses++;
+                plusAfterDigit |= digits > 0;
+                dialable &= i == start;
+            } else if (c != '-' && c != '(' && c != ')' && !isPatternWhitespace(c)) {
+                return 0;
+            }
+        }
+        if (digits < MIN_DIGITS || digits > MAX_DIGITS) {
+            return 0;
+        }
+        
+        int flags = pluses <= 1 && !plusAfterDigit ? PHONE_NUMBER : 0;
+        int length = end - start;
+        // "N/A" never gets here: it has no digits
+        if (dialable && length >= MIN_NUMBER_LENGTH && length <= MAX_NUMBER_LENGTH) {
+            flags |= DIALABLE;
+        }
+        return flags;
+    }
+    
+    // The characters \s matches in a regex
+    private static boolean isPatternWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+    
+    /**
+     * Search text with anything but letters, digits, spaces, hyphens and underscores removed,
+     * cut to 100 characters; null if nothing is left.
+     */
+    public static String sanitizeSearchQuery(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return null;
+        }
+        
+        String trimmed = query.trim();
+        
+        // Limit search query length
+        if (trimmed.length() > MAX_SEARCH_LENGTH) {
+            trimmed = trimmed.substring(0, MAX_SEARCH_LENGTH);
+        }
+        
+        // Allow only safe characters for search
+        if (!SAFE_SEARCH_PATTERN.matcher(trimmed).matches()) {
+            Log.w(TAG, "Invalid characters in search query, filtering them out");
+            trimmed = UNSAFE_SEARCH_PATTERN.matcher(trimmed).replaceAll("");
+        }
+        
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+    
+    /**
+     * Text with control characters (other than line breaks and tabs) removed, trimmed and cut
+     * to 100 characters plus "...". Null becomes "".
+     */
+    public static String sanitizeDisplayText(String text) {
+        if (text == null) {
+            return "";
+        }
+        
+        // Remove any potential control characters and limit length
+        String sanitized = CONTROL_CHARACTERS_PATTERN.matcher(text).replaceAll("").trim();
+        
+        // Limit display text length to prevent UI issues
+        if (sanitized.length() > MAX_DISPLAY_LENGTH) {
+            sanitized = sanitized.substring(0, MAX_DISPLAY_LENGTH) + "...";
+        }
+        
+        return sanitized;
+    }
+}
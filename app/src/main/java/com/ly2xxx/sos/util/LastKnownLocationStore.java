@@ -0,0 +1,132 @@
+package com.ly2xxx.sos.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.util.Log;
+
+import com.ly2xxx.sos.model.EmergencyContact;
+
+/**
+ * The last location, country and emergency numbers MainActivity resolved, kept so a cold start
+ * can show the right local numbers on its first frame instead of waiting for a provider. Saves
+ * go through SharedPreferences.apply(), so the disk write never happens on the caller's thread.
+ */
+public class LastKnownLocationStore {
+    
+    private static final String TAG = "LastKnownLocationStore";
+    
+    private static final String PREFS_NAME = "last_known_location";
+    // Bump when the keys below change meaning; older records are then ignored
+    private static final int FORMAT_VERSION = 1;
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_LATITUDE = "latitude";
+    private static final String KEY_LONGITUDE = "longitude";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_COUNTRY = "country";
+    private static final String KEY_POLICE = "police";
+    private static final String KEY_AMBULANCE = "ambulance";
+    private static final String KEY_FIRE = "fire";
+    private static final String KEY_GENERAL = "general";
+    
+    private final SharedPreferences preferences;
+    
+    public LastKnownLocationStore(Context context) {
+        // The file starts loading on a background thread right away; create the store early so
+        // the read overlaps with whatever the caller does before load()
+        this.preferences = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+    
+    /**
+     * What was saved last, or null if nothing was or the record can't be trusted.
+     */
+    public Snapshot load() {
+        try {
+            if (preferences.getInt(KEY_VERSION, 0) != FORMAT_VERSION) {
+                return null;
+            }
+            
+            String country = preferences.getString(KEY_COUNTRY, null);
+            String police = InputValidator.sanitizePhoneNumberForIntent(preferences.getString(KEY_POLICE, null));
+            String ambulance = InputValidator.sanitizePhoneNumberForIntent(preferences.getString(KEY_AMBULANCE, null));
+            String fire = InputValidator.sanitizePhoneNumberForIntent(preferences.getString(KEY_FIRE, null));
+            String general = InputValidator.sanitizePhoneNumberForIntent(preferences.getString(KEY_GENERAL, null));
+            if (country == null || police == null || ambulance == null || fire == null || general == null) {
+                Log.w(TAG, "Ignoring incomplete last known location");
+                return null;
+            }
+            
+            return new Snapshot(
+                    Double.longBitsToDouble(preferences.getLong(KEY_LATITUDE, 0L)),
+                    Double.longBitsToDouble(preferences.getLong(KEY_LONGITUDE, 0L)),
+                    preferences.getLong(KEY_TIME, 0L),
+                    country,
+                    EmergencyContact.of(police, ambulance, fire, general));
+        } catch (ClassCastException e) {
+            Log.e(TAG, "Error reading last known location", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Replaces the saved record. Returns at once; the write finishes in the background.
+     */
+    public void save(Location location, String country, EmergencyContact contact) {
+        if (location == null || country == null || contact == null) {
+            return;
+        }
+        
+        preferences.edit()
+                .putInt(KEY_VERSION, FORMAT_VERSION)
+                // As raw bits: putFloat would round coordinates to a few metres
+                .putLong(KEY_LATITUDE, Double.doubleToRawLongBits(location.getLatitude()))
+                .putLong(KEY_LONGITUDE, Double.doubleToRawLongBits(location.getLongitude()))
+                .putLong(KEY_TIME, location.getTime())
+                .putString(KEY_COUNTRY, country)
+                .putString(KEY_POLICE, contact.getPolice())
+                .putString(KEY_AMBULANCE, contact.getAmbulance())
+                .putString(KEY_FIRE, contact.getFire())
+                .putString(KEY_GENERAL, contact.getGeneral())
+                .apply();
+    }
+    
+    public static class Snapshot {
+        private final double latitude;
+        private final double longitude;
+        private final long time;
+        private final String country;
+        private final EmergencyContact contact;
+        
+        Snapshot(double latitude, double longitude, long time, String country, EmergencyContact contact) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.time = time;
+            this.country = country;
+            this.contact = contact;
+        }
+        
+        public double getLatitude() {
+            return latitude;
+        }
+        
+        public double getLongitude() {
+            return longitude;
+        }
+        
+        /**
+         * UTC time of the fix, in milliseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+        
+        public String getCountry() {
+            return country;
+        }
+        
+        public EmergencyContact getContact() {
+            return contact;
+        }
+    }
+}
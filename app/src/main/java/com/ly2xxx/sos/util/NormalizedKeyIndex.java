@@ -0,0 +1,107 @@
+package com.ly2xxx.sos.util;
+
+/**
+ * Open-addressing map from country names to ints that ignores case and everything other than
+ * letters and digits, so "United_States", "united states" and "U.S.A." can share one entry.
+ * Queries are hashed and compared character by character in place; a lookup does not
+ * allocate. Filled once while a snapshot is built and read-only afterwards.
+ */
+final class NormalizedKeyIndex {
+    
+    static final int NOT_FOUND = -1;
+    
+    private final String[] keys;
+    private final int[] values;
+    private final int mask;
+    private int size;
+    
+    NormalizedKeyIndex(int expectedSize) {
+        // Keep the table at most half full so probe runs stay short
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+    
+    /**
+     * Maps the name to the value unless an equivalent name is already present. Returns false
+     * for a name that is empty after normalisation or already taken.
+     */
+    boolean put(CharSequence name, int value) {
+        String normalized = normalize(name);
+        if (normalized.isEmpty() || get(normalized) != NOT_FOUND) {
+            return false;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            throw new IllegalStateException("Index is full");
+        }
+        int slot = hash(normalized) & mask;
+        while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = normalized;
+        values[slot] = value;
+        size++;
+        return true;
+    }
+    
+    /**
+     * Value for any spelling equivalent to the query, or {@link #NOT_FOUND}.
+     */
+    int get(CharSequence query) {
+        if (query == null) {
+            return NOT_FOUND;
+        }
+        int slot = hash(query) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (matches(key, query)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    static String normalize(CharSequence name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+    
+    // Hash of normalize(text), computed without building the string
+    private static int hash(CharSequence text) {
+        int h = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                h = 31 * h + Character.toLowerCase(c);
+            }
+        }
+        // Spread the high bits; the table is indexed by the low ones
+        return h ^ (h >>> 16);
+    }
+    
+    private static boolean matches(String normalized, CharSequence query) {
+        int position = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (position == normalized.length() || normalized.charAt(position) != Character.toLowerCase(c)) {
+                    return false;
+                }
+                position++;
+            }
+        }
+        return position == normalized.length();
+    }
+}
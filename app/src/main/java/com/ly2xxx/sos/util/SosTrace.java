@@ -0,0 +1,195 @@
+package com.ly2xxx.sos.util;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timing for the path from process start to "Ready for emergency calls". Sections show up in
+ * systrace/Perfetto as android.os.Trace slices and are also totalled here; milestones record
+ * the first time each step happened, measured from process start on the monotonic clock.
+ * MainActivity prints both from dumpsys:
+ *
+ *   adb shell dumpsys activity com.ly2xxx.sos/.MainActivity [--json]
+ */
+public final class SosTrace {
+    
+    private static final String TAG = "SosTrace";
+    
+    // Sections
+    public static final String CONTACTS_LOAD = "sos.contacts.load";
+    public static final String COUNTRY_LOOKUP = "sos.country.lookup";
+    public static final String BUTTON_UPDATE = "sos.buttons.update";
+    // Not a slice: from asking for location updates to the first fix coming back
+    public static final String TIME_TO_FIRST_FIX = "sos.location.ttff";
+    
+    // Milestones
+    public static final String CONTACTS_LOADED = "contacts_loaded";
+    public static final String CONTACTS_LOAD_FAILED = "contacts_load_failed";
+    public static final String LAST_KNOWN_SHOWN = "last_known_shown";
+    public static final String FIRST_FIX = "first_fix";
+    public static final String READY = "ready";
+    
+    private static final long PROCESS_START_NANOS = processStartNanos();
+    
+    private static final Map<String, Long> MILESTONES = new LinkedHashMap<>();
+    private static final Map<String, Stats> SECTIONS = new LinkedHashMap<>();
+    
+    private SosTrace() {
+    }
+    
+    /**
+     * Opens a trace section on this thread and returns the start time to hand to endSection.
+     */
+    public static long beginSection(String name) {
+        Trace.beginSection(name);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+    
+    /**
+     * Closes the section beginSection opened on this thread and adds its duration to the stats.
+     */
+    public static void endSection(String name, long startNanos) {
+        long duration = SystemClock.elapsedRealtimeNanos() - startNanos;
+        Trace.endSection();
+        record(name, duration);
+    }
+    
+    /**
+     * Adds a duration measured some other way, such as across threads or callbacks.
+     */
+    public static void record(String name, long durationNanos) {
+        synchronized (SECTIONS) {
+            Stats stats = SECTIONS.get(name);
+            if (stats == null) {
+                stats = new Stats();
+                SECTIONS.put(name, stats);
+            }
+            stats.add(durationNanos);
+        }
+    }
+    
+    /**
+     * Records that a milestone was reached. Only the first time counts.
+     */
+    public static void mark(String milestone) {
+        long sinceStart = SystemClock.elapsedRealtimeNanos() - PROCESS_START_NANOS;
+        synchronized (MILESTONES) {
+            if (MILESTONES.containsKey(milestone)) {
+                return;
+            }
+            MILESTONES.put(milestone, sinceStart);
+        }
+        Log.i(TAG, String.format(Locale.ROOT, "%s at %.1f ms", milestone, toMillis(sinceStart)));
+    }
+    
+    /**
+     * Nanoseconds from process start to the milestone, or -1 if it hasn't been reached.
+     */
+    public static long getMilestone(String milestone) {
+        synchronized (MILESTONES) {
+            Long sinceStart = MILESTONES.get(milestone);
+            return sinceStart != null ? sinceStart : -1L;
+        }
+    }
+    
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("SOS timings (ms since process start):");
+        synchronized (MILESTONES) {
+            for (Map.Entry<String, Long> milestone : MILESTONES.entrySet()) {
+                writer.println(String.format(Locale.ROOT, "%s  %-18s %10.1f",
+                        prefix, milestone.getKey(), toMillis(milestone.getValue())));
+            }
+        }
+        writer.print(prefix);
+        writer.println("SOS sections (ms):        count       last       mean        max");
+        synchronized (SECTIONS) {
+            for (Map.Entry<String, Stats> section : SECTIONS.entrySet()) {
+                Stats stats = section.getValue();
+                writer.println(String.format(Locale.ROOT, "%s  %-20s %8d %10.2f %10.2f %10.2f",
+                        prefix, section.getKey(), stats.count, toMillis(stats.lastNanos),
+                        toMillis(stats.totalNanos / stats.count), toMillis(stats.maxNanos)));
+            }
+        }
+    }
+    
+    /**
+     * Everything dump prints, as JSON: milestones in ms since process start and per-section
+     * count, last, mean and max in ms.
+     */
+    public static String toJson() {
+        try {
+            JSONObject milestones = new JSONObject();
+            synchronized (MILESTONES) {
+                for (Map.Entry<String, Long> milestone : MILESTONES.entrySet()) {
+                    milestones.put(milestone.getKey(), toMillis(milestone.getValue()));
+                }
+            }
+            JSONObject sections = new JSONObject();
+            synchronized (SECTIONS) {
+                for (Map.Entry<String, Stats> section : SECTIONS.entrySet()) {
+                    Stats stats = section.getValue();
+                    sections.put(section.getKey(), new JSONObject()
+                            .put("count", stats.count)
+                            .put("last_ms", toMillis(stats.lastNanos))
+                            .put("mean_ms", toMillis(stats.totalNanos / stats.count))
+                            .put("max_ms", toMillis(stats.maxNanos)));
+                }
+            }
+            return new JSONObject()
+                    .put("milestones", milestones)
+                    .put("sections", sections)
+                    .toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "Error exporting timings", e);
+            return "{}";
+        }
+    }
+    
+    // For tests
+    static void reset() {
+        synchronized (MILESTONES) {
+            MILESTONES.clear();
+        }
+        synchronized (SECTIONS) {
+            SECTIONS.clear();
+        }
+    }
+    
+    private static long processStartNanos() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime() * 1000000L;
+        }
+        // Older releases don't say; this class loads early in onCreate, which is close enough
+        return SystemClock.elapsedRealtimeNanos();
+    }
+    
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    private static final class Stats {
+        int count;
+        long totalNanos;
+        long maxNanos;
+        long lastNanos;
+        
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastNanos = nanos;
+        }
+    }
+}
@@ -14,13 +14,16 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.test.core.app.ApplicationProvider;
 
 import com.ly2xxx.sos.model.EmergencyContact;
+import com.ly2xxx.sos.util.CountryCodes;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
@@ -88,6 +91,28 @@ public class EmergencyContactAdapterTest {
         assertEquals(0, emptyAdapter.getItemCount());
     }
 
+    @Test
+    public void testStableIdsFollowCountryKey() {
+        assertTrue(adapter.hasStableIds());
+        
+        EmergencyContact contact = new EmergencyContact("999", "999", "999", "112");
+        List<EmergencyContactsActivity.CountryEmergencyContact> contacts = new ArrayList<>();
+        contacts.add(new EmergencyContactsActivity.CountryEmergencyContact("United_Kingdom", "United Kingdom", contact));
+        contacts.add(new EmergencyContactsActivity.CountryEmergencyContact("Atlantis", "Atlantis", contact));
+        contacts.add(null);
+        EmergencyContactAdapter keyedAdapter = new EmergencyContactAdapter(contacts);
+        
+        assertEquals(CountryCodes.indexOfKey("United_Kingdom"), keyedAdapter.getItemId(0));
+        assertTrue(keyedAdapter.getItemId(1) >= CountryCodes.size());
+        assertEquals(RecyclerView.NO_ID, keyedAdapter.getItemId(2));
+        
+        // The id belongs to the country, whatever it is called on screen
+        EmergencyContactsActivity.CountryEmergencyContact renamed =
+                new EmergencyContactsActivity.CountryEmergencyContact("United_Kingdom", "UK", contact);
+        assertEquals(keyedAdapter.getItemId(0), renamed.getStableId());
+        assertNotEquals(keyedAdapter.getItemId(0), keyedAdapter.getItemId(1));
+    }
+
     @Test
     public void testIsValidEmergencyNumber() throws Exception {
         Method method = EmergencyContactAdapter.class.getDeclaredMethod("isValidEmergencyNumber", String.class);
@@ -284,6 +309,37 @@ public class EmergencyContactAdapterTest {
         verify(mockGeneral).setText("🆘 Emergency 911");
     }
 
+    @Test
+    public void testBindViewHolder_CopiesPrecomputedRow() {
+        View mockItemView = mock(View.class);
+        TextView mockPolice = mock(TextView.class);
+        TextView mockAmbulance = mock(TextView.class);
+        when(mockItemView.findViewById(R.id.tv_police_number)).thenReturn(mockPolice);
+        when(mockItemView.findViewById(R.id.tv_ambulance_number)).thenReturn(mockAmbulance);
+        
+        EmergencyContactAdapter.ViewHolder viewHolder = new EmergencyContactAdapter.ViewHolder(mockItemView);
+        EmergencyContactAdapter.RowDisplay row = testContacts.get(2).getRowDisplay();
+        
+        // Built once with the contact, not on every bind
+        assertSame(row, testContacts.get(2).getRowDisplay());
+        
+        adapter.onBindViewHolder(viewHolder, 2);
+        
+        // A blank police number falls back to 112; "N/A" is shown but can't be tapped
+        verify(mockPolice).setText("🚔 Police 112");
+        verify(mockPolice).setEnabled(true);
+        verify(mockAmbulance).setText("🚑 Ambulance N/A");
+        verify(mockAmbulance).setEnabled(false);
+        
+        // The shared click listener dials whatever the tag says
+        ArgumentCaptor<Object> tag = ArgumentCaptor.forClass(Object.class);
+        verify(mockPolice).setTag(tag.capture());
+        EmergencyContactAdapter.Call call = (EmergencyContactAdapter.Call) tag.getValue();
+        assertEquals("112", call.number);
+        assertEquals("Police", call.serviceType);
+        assertSame(row.calls[0], call);
+    }
+
     @Test
     public void testBindViewHolder_InvalidPosition() {
         View mockItemView = mock(View.class);
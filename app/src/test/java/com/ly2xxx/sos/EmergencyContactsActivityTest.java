@@ -4,15 +4,19 @@ import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
+import static org.robolectric.Shadows.shadowOf;
 
 import android.content.Context;
 import android.content.res.AssetManager;
+import android.os.Looper;
 import android.widget.EditText;
+import android.widget.TextView;
 
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.test.core.app.ApplicationProvider;
 
 import com.ly2xxx.sos.model.EmergencyContact;
+import com.ly2xxx.sos.util.InputValidator;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -27,6 +31,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
@@ -47,49 +52,40 @@ public class EmergencyContactsActivityTest {
     }
 
     @Test
-    public void testSanitizeCountryName_ValidInput() throws Exception {
-        Method method = EmergencyContactsActivity.class.getDeclaredMethod("sanitizeCountryName", String.class);
-        method.setAccessible(true);
-        
-        String result = (String) method.invoke(activity, "United_States");
+    public void testSanitizeCountryName_ValidInput() {
+        String result = InputValidator.sanitizeCountryName("United_States");
         assertEquals("United States", result);
         
-        result = (String) method.invoke(activity, "United-Kingdom");
+        result = InputValidator.sanitizeCountryName("United-Kingdom");
         assertEquals("United-Kingdom", result);
         
-        result = (String) method.invoke(activity, "Germany");
+        result = InputValidator.sanitizeCountryName("Germany");
         assertEquals("Germany", result);
     }
 
     @Test
-    public void testSanitizeCountryName_InvalidInput() throws Exception {
-        Method method = EmergencyContactsActivity.class.getDeclaredMethod("sanitizeCountryName", String.class);
-        method.setAccessible(true);
-        
+    public void testSanitizeCountryName_InvalidInput() {
         // Test null input
-        String result = (String) method.invoke(activity, (String) null);
+        String result = InputValidator.sanitizeCountryName(null);
         assertNull(result);
         
         // Test empty input
-        result = (String) method.invoke(activity, "");
+        result = InputValidator.sanitizeCountryName("");
         assertNull(result);
         
         // Test input with invalid characters
-        result = (String) method.invoke(activity, "Country<script>");
+        result = InputValidator.sanitizeCountryName("Country<script>");
         assertNull(result);
         
         // Test input with numbers
-        result = (String) method.invoke(activity, "Country123");
+        result = InputValidator.sanitizeCountryName("Country123");
         assertNull(result);
     }
 
     @Test
-    public void testSanitizeCountryName_LongInput() throws Exception {
-        Method method = EmergencyContactsActivity.class.getDeclaredMethod("sanitizeCountryName", String.class);
-        method.setAccessible(true);
-        
+    public void testSanitizeCountryName_LongInput() {
         String longCountryName = "ThisIsAVeryLongCountryNameThatExceedsTheMaximumAllowedLength";
-        String result = (String) method.invoke(activity, longCountryName);
+        String result = InputValidator.sanitizeCountryName(longCountryName);
         
         assertNotNull(result);
         assertTrue(result.length() <= 50);
@@ -97,50 +93,44 @@ public class EmergencyContactsActivityTest {
     }
 
     @Test
-    public void testSanitizePhoneNumber_ValidNumbers() throws Exception {
-        Method method = EmergencyContactsActivity.class.getDeclaredMethod("sanitizePhoneNumber", String.class);
-        method.setAccessible(true);
-        
-        String result = (String) method.invoke(activity, "911");
+    public void testSanitizePhoneNumber_ValidNumbers() {
+        String result = InputValidator.sanitizePhoneNumber("911");
         assertEquals("911", result);
         
-        result = (String) method.invoke(activity, "+1-555-123-4567");
+        result = InputValidator.sanitizePhoneNumber("+1-555-123-4567");
         assertEquals("+1-555-123-4567", result);
         
-        result = (String) method.invoke(activity, "112");
+        result = InputValidator.sanitizePhoneNumber("112");
         assertEquals("112", result);
         
-        result = (String) method.invoke(activity, "+49 30 12345678");
+        result = InputValidator.sanitizePhoneNumber("+49 30 12345678");
         assertEquals("+49 30 12345678", result);
     }
 
     @Test
-    public void testSanitizePhoneNumber_InvalidNumbers() throws Exception {
-        Method method = EmergencyContactsActivity.class.getDeclaredMethod("sanitizePhoneNumber", String.class);
-        method.setAccessible(true);
-        
+    public void testSanitizePhoneNumber_InvalidNumbers() {
         // Test null input
-        String result = (String) method.invoke(activity, (String) null);
+        String result = InputValidator.sanitizePhoneNumber(null);
         assertNull(result);
         
         // Test empty input
-        result = (String) method.invoke(activity, "");
+        result = InputValidator.sanitizePhoneNumber("");
         assertNull(result);
         
         // Test too short
-        result = (String) method.invoke(activity, "12");
+        result = InputValidator.sanitizePhoneNumber("12");
         assertNull(result);
         
         // Test too long
-        result = (String) method.invoke(activity, "12345678901234567890");
+        result = InputValidator.sanitizePhoneNumber("12345678901234567890");
         assertNull(result);
         
         // Test invalid characters
-        result = (String) method.invoke(activity, "911<script>");
+        result = InputValidator.sanitizePhoneNumber("911<script>");
         assertNull(result);
         
         // Test letters
-        result = (String) method.invoke(activity, "CALL911");
+        result = InputValidator.sanitizePhoneNumber("CALL911");
         assertNull(result);
     }
 
@@ -159,6 +149,16 @@ public class EmergencyContactsActivityTest {
         assertEquals("France-2", result);
     }
 
+    @Test
+    public void testSanitizeSearchQueryKeepsAccents() throws Exception {
+        Method method = EmergencyContactsActivity.class.getDeclaredMethod("sanitizeSearchQuery", String.class);
+        method.setAccessible(true);
+        
+        assertEquals("España", method.invoke(activity, "España"));
+        assertEquals("Türkiye", method.invoke(activity, "Türkiye"));
+        assertEquals("Côte dIvoire", method.invoke(activity, "Côte d'Ivoire"));
+    }
+
     @Test
     public void testSanitizeSearchQuery_InvalidInput() throws Exception {
         Method method = EmergencyContactsActivity.class.getDeclaredMethod("sanitizeSearchQuery", String.class);
@@ -281,10 +281,7 @@ public class EmergencyContactsActivityTest {
     }
 
     @Test
-    public void testPhoneNumberSecurityValidation() throws Exception {
-        Method sanitizePhoneMethod = EmergencyContactsActivity.class.getDeclaredMethod("sanitizePhoneNumber", String.class);
-        sanitizePhoneMethod.setAccessible(true);
-        
+    public void testPhoneNumberSecurityValidation() {
         // Test malicious phone number inputs
         String[] maliciousPhoneInputs = {
                 "911; rm -rf /",
@@ -295,9 +292,60 @@ public class EmergencyContactsActivityTest {
         };
         
         for (String maliciousInput : maliciousPhoneInputs) {
-            String result = (String) sanitizePhoneMethod.invoke(activity, maliciousInput);
+            String result = InputValidator.sanitizePhoneNumber(maliciousInput);
             // Should be null for malicious inputs
             assertNull("Malicious phone input not rejected: " + maliciousInput, result);
         }
     }
+
+    @Test
+    public void testSearchIsDebouncedAndNarrowsInBackground() throws Exception {
+        RecyclerView recyclerView = activity.findViewById(R.id.recycler_view);
+        EditText searchEditText = activity.findViewById(R.id.search_edit_text);
+        int all = awaitItemCount(recyclerView, 0);
+        assertTrue(all > 3);
+
+        searchEditText.setText("United");
+        // Nothing is filtered until typing pauses
+        assertEquals(all, recyclerView.getAdapter().getItemCount());
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(150));
+        assertEquals(3, awaitItemCount(recyclerView, all));
+
+        // A longer query is searched afresh in the index; "United K" has no typos to forgive
+        searchEditText.setText("United K");
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(150));
+        assertEquals(1, awaitItemCount(recyclerView, 3));
+
+        // Clearing the query restores the full list straight away
+        searchEditText.setText("");
+        assertEquals(all, recyclerView.getAdapter().getItemCount());
+    }
+
+    @Test
+    public void testStaleSearchIsDiscarded() throws Exception {
+        RecyclerView recyclerView = activity.findViewById(R.id.recycler_view);
+        EditText searchEditText = activity.findViewById(R.id.search_edit_text);
+        int all = awaitItemCount(recyclerView, 0);
+
+        searchEditText.setText("Germany");
+        searchEditText.setText("Japan");
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(150));
+        assertEquals(1, awaitItemCount(recyclerView, all));
+        RecyclerView.ViewHolder holder = recyclerView.getAdapter().createViewHolder(recyclerView, 0);
+        recyclerView.getAdapter().bindViewHolder(holder, 0);
+        assertEquals("Japan", ((TextView) holder.itemView.findViewById(R.id.tv_country_name)).getText().toString());
+    }
+
+    // Searches finish on a background thread and post their result to the main looper
+    private static int awaitItemCount(RecyclerView recyclerView, int previous) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            shadowOf(Looper.getMainLooper()).idle();
+            int count = recyclerView.getAdapter().getItemCount();
+            if (count != previous) {
+                return count;
+            }
+            Thread.sleep(10);
+        }
+        return recyclerView.getAdapter().getItemCount();
+    }
 }
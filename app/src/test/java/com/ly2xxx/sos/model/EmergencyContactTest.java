@@ -0,0 +1,59 @@
+package com.ly2xxx.sos.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class EmergencyContactTest {
+
+    @Test
+    public void testNumbersArePooled() {
+        EmergencyContact germany = new EmergencyContact("110", new String("112"), "112", " 112 ");
+        EmergencyContact italy = new EmergencyContact("112", "118", "115", new String("112"));
+
+        assertSame(germany.getAmbulance(), germany.getGeneral());
+        assertSame(germany.getAmbulance(), italy.getPolice());
+        assertEquals("112", germany.getGeneral());
+    }
+
+    @Test
+    public void testIdenticalContactsAreShared() {
+        EmergencyContact unitedStates = EmergencyContact.of("911", "911", "911", "911");
+        EmergencyContact canada = EmergencyContact.of("911", "911", " 911", "911");
+
+        assertSame(unitedStates, canada);
+        assertNotSame(unitedStates, EmergencyContact.of("911", "911", "911", "112"));
+    }
+
+    @Test
+    public void testBlankNumbersAreMissing() {
+        EmergencyContact contact = new EmergencyContact("  ", null, "118", "");
+
+        assertEquals("112", contact.getPolice());
+        assertEquals("112", contact.getAmbulance());
+        assertEquals("118", contact.getFire());
+        assertEquals("118", contact.getPrimaryEmergencyNumber());
+        assertTrue(contact.isValid());
+        assertEquals(new EmergencyContact(null, null, "118", null), contact);
+    }
+
+    @Test
+    public void testEmptyContact() {
+        EmergencyContact contact = new EmergencyContact(null, "", " ", null);
+
+        assertFalse(contact.isValid());
+        assertEquals("112", contact.getPrimaryEmergencyNumber());
+        assertEquals("112", contact.getGeneral());
+    }
+
+    @Test
+    public void testPrimaryNumberPrefersGeneral() {
+        assertEquals("999", new EmergencyContact("101", "999", "999", "999").getPrimaryEmergencyNumber());
+        assertEquals("101", new EmergencyContact("101", "102", "103", null).getPrimaryEmergencyNumber());
+    }
+}
@@ -0,0 +1,272 @@
+package com.ly2xxx.sos.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LocationServiceTest {
+
+    private static final long NOW = TimeUnit.HOURS.toNanos(1);
+
+    private LocationManager locationManager;
+    private LocationService service;
+
+    @Before
+    public void setUp() {
+        Application application = ApplicationProvider.getApplicationContext();
+        shadowOf(application).grantPermissions(
+                Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION);
+
+        locationManager = mock(LocationManager.class);
+        when(locationManager.isProviderEnabled(anyString())).thenReturn(true);
+        Context context = new ContextWrapper(application) {
+            @Override
+            public Object getSystemService(String name) {
+                return Context.LOCATION_SERVICE.equals(name) ? locationManager : super.getSystemService(name);
+            }
+        };
+        service = new LocationService(context);
+    }
+
+    @Test
+    public void testConstructorRegistersNothing() {
+        verify(locationManager, never()).requestLocationUpdates(
+                anyString(), anyLong(), anyFloat(), any(LocationListener.class));
+        assertEquals(0, service.getActiveRequestCount());
+    }
+
+    @Test
+    public void testOneRequestPerProviderWhateverTheSubscribers() {
+        LocationService.Subscription first = service.subscribe();
+        LocationService.Subscription second = service.subscribe();
+        service.startLocationUpdates();
+        service.startLocationUpdates();
+
+        assertEquals(3, service.getSubscriberCount());
+        assertEquals(2, service.getActiveRequestCount());
+        verifyRequests(1);
+
+        // Closing twice, or stopping twice, only gives up one subscription each
+        first.close();
+        first.close();
+        service.stopLocationUpdates();
+        service.stopLocationUpdates();
+        assertEquals(1, service.getSubscriberCount());
+        verify(locationManager, never()).removeUpdates(any(LocationListener.class));
+
+        second.close();
+        assertEquals(0, service.getSubscriberCount());
+        assertEquals(0, service.getActiveRequestCount());
+        // Network and GPS listeners
+        verify(locationManager, times(2)).removeUpdates(any(LocationListener.class));
+        verifyRequests(1);
+    }
+
+    @Test
+    public void testLifecycleBindingFollowsResumeAndPause() {
+        TestLifecycleOwner owner = new TestLifecycleOwner();
+        service.bindTo(owner);
+
+        owner.lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+        owner.lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_START);
+        assertEquals(0, service.getSubscriberCount());
+
+        for (int i = 1; i <= 3; i++) {
+            owner.lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_RESUME);
+            assertEquals(1, service.getSubscriberCount());
+            assertEquals(2, service.getActiveRequestCount());
+            verifyRequests(i);
+
+            owner.lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_PAUSE);
+            assertEquals(0, service.getSubscriberCount());
+            assertEquals(0, service.getActiveRequestCount());
+        }
+
+        owner.lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_STOP);
+        owner.lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
+        assertEquals(0, owner.lifecycle.getObserverCount());
+    }
+
+    @Test
+    public void testRequestsStayTrackedUntilRemoved() {
+        Application application = ApplicationProvider.getApplicationContext();
+        service.startLocationUpdates();
+        assertEquals(2, service.getActiveRequestCount());
+
+        // Without a location permission the removal is skipped, so both requests still count
+        shadowOf(application).denyPermissions(
+                Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION);
+        service.stopLocationUpdates();
+        verify(locationManager, never()).removeUpdates(any(LocationListener.class));
+        assertEquals(2, service.getActiveRequestCount());
+
+        // Still registered, so a new subscriber requests nothing twice, and the next stop removes them
+        shadowOf(application).grantPermissions(
+                Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION);
+        service.startLocationUpdates();
+        verifyRequests(1);
+        service.stopLocationUpdates();
+        verify(locationManager, times(2)).removeUpdates(any(LocationListener.class));
+        assertEquals(0, service.getActiveRequestCount());
+    }
+
+    @Test
+    public void testRefusedNetworkRequestStillStartsGps() {
+        doThrow(new SecurityException("Permission revoked")).when(locationManager).requestLocationUpdates(
+                eq(LocationManager.NETWORK_PROVIDER), anyLong(), anyFloat(), any(LocationListener.class));
+
+        service.startLocationUpdates();
+        assertEquals(1, service.getActiveRequestCount());
+        verifyRequests(1);
+    }
+
+    @Test
+    public void testFirstFixAlwaysWins() {
+        assertTrue(LocationService.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 2000f, 0), null, true));
+    }
+
+    @Test
+    public void testMoreAccurateFixWins() {
+        Location network = fix(LocationManager.NETWORK_PROVIDER, 500f, 0);
+        Location gps = fix(LocationManager.GPS_PROVIDER, 15f, 0);
+        assertTrue(LocationService.isBetterLocation(gps, network, true));
+        assertFalse(LocationService.isBetterLocation(network, gps, true));
+        // Even slightly older, a sharper fix is worth taking
+        assertTrue(LocationService.isBetterLocation(fix(LocationManager.GPS_PROVIDER, 15f, -30), network, true));
+    }
+
+    @Test
+    public void testAgeOutweighsAccuracy() {
+        Location gps = fix(LocationManager.GPS_PROVIDER, 10f, 0);
+        // A coarse network fix doesn't replace a sharp GPS one from a few seconds ago...
+        assertFalse(LocationService.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 1500f, 10), gps, true));
+        // ...but a much newer one replaces it whatever its accuracy
+        assertTrue(LocationService.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 1500f, 150), gps, true));
+        // and a much older fix never wins
+        assertFalse(LocationService.isBetterLocation(fix(LocationManager.GPS_PROVIDER, 5f, -150), gps, true));
+    }
+
+    @Test
+    public void testNewerGoodEnoughFixWins() {
+        Location gps = fix(LocationManager.GPS_PROVIDER, 8f, 0);
+        assertTrue(LocationService.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 60f, 20), gps, true));
+        // Same provider, a little less accurate but newer: follow it
+        Location network = fix(LocationManager.NETWORK_PROVIDER, 150f, 0);
+        assertTrue(LocationService.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 300f, 20), network, true));
+        assertFalse(LocationService.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 800f, 20), network, true));
+    }
+
+    @Test
+    public void testNewerFixThatMovedWins() {
+        Location gps = fix(LocationManager.GPS_PROVIDER, 10f, 0);
+        gps.setLatitude(48.5734);
+        gps.setLongitude(7.7521);
+        // About 1.5 km east: too coarse to beat the GPS fix on accuracy, but it can't be where
+        // the GPS fix said we were
+        Location moved = fix(LocationManager.NETWORK_PROVIDER, 1500f, 10);
+        moved.setLatitude(48.5734);
+        moved.setLongitude(7.7721);
+        assertTrue(LocationService.isBetterLocation(moved, gps, true));
+
+        // Inside the GPS fix's circle it only wins when GPS isn't coming back
+        Location nearby = fix(LocationManager.NETWORK_PROVIDER, 1500f, 10);
+        nearby.setLatitude(48.5734);
+        nearby.setLongitude(7.7521);
+        assertFalse(LocationService.isBetterLocation(nearby, gps, true));
+        assertTrue(LocationService.isBetterLocation(nearby, gps, false));
+        // An older fix still never wins that way
+        assertFalse(LocationService.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 1500f, -10), gps, false));
+    }
+
+    @Test
+    public void testGoodEnoughNeedsAccuracyAndFreshness() {
+        assertTrue(LocationService.isGoodEnough(fix(LocationManager.GPS_PROVIDER, 50f, 0), NOW));
+        assertFalse(LocationService.isGoodEnough(fix(LocationManager.NETWORK_PROVIDER, 800f, 0), NOW));
+        assertFalse(LocationService.isGoodEnough(fix(LocationManager.GPS_PROVIDER, 50f, -180), NOW));
+        assertFalse(LocationService.isGoodEnough(null, NOW));
+        
+        Location noAccuracy = new Location(LocationManager.GPS_PROVIDER);
+        noAccuracy.setElapsedRealtimeNanos(NOW);
+        assertFalse(LocationService.isGoodEnough(noAccuracy, NOW));
+    }
+
+    @Test
+    public void testIntervalFollowsSpeedAndBattery() {
+        long still = LocationService.chooseInterval(0f, false);
+        long walking = LocationService.chooseInterval(1.5f, false);
+        long driving = LocationService.chooseInterval(25f, false);
+        assertTrue(driving < walking);
+        assertTrue(walking < still);
+        assertEquals(2 * driving, LocationService.chooseInterval(25f, true));
+    }
+
+    @Test
+    public void testSpeedEstimate() {
+        Location first = fix(LocationManager.NETWORK_PROVIDER, 50f, 0);
+        first.setLatitude(52.0);
+        first.setLongitude(13.0);
+        Location second = fix(LocationManager.NETWORK_PROVIDER, 50f, 10);
+        second.setLatitude(52.001);
+        second.setLongitude(13.0);
+        // About 111 m in 10 s
+        assertEquals(11.1f, LocationService.estimateSpeed(first, second), 0.5f);
+        assertEquals(0f, LocationService.estimateSpeed(null, second), 0f);
+        
+        second.setSpeed(3f);
+        assertEquals(3f, LocationService.estimateSpeed(first, second), 0f);
+    }
+
+    private static Location fix(String provider, float accuracy, int secondsFromNow) {
+        Location location = new Location(provider);
+        location.setAccuracy(accuracy);
+        location.setElapsedRealtimeNanos(NOW + TimeUnit.SECONDS.toNanos(secondsFromNow));
+        return location;
+    }
+
+    // Requests made so far, per provider
+    private void verifyRequests(int times) {
+        verify(locationManager, times(times)).requestLocationUpdates(
+                eq(LocationManager.NETWORK_PROVIDER), anyLong(), anyFloat(), any(LocationListener.class));
+        verify(locationManager, times(times)).requestLocationUpdates(
+                eq(LocationManager.GPS_PROVIDER), anyLong(), anyFloat(), any(LocationListener.class));
+    }
+
+    private static class TestLifecycleOwner implements LifecycleOwner {
+        final LifecycleRegistry lifecycle = new LifecycleRegistry(this);
+
+        @NonNull
+        @Override
+        public Lifecycle getLifecycle() {
+            return lifecycle;
+        }
+    }
+}
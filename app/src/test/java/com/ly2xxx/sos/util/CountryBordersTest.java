@@ -0,0 +1,186 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class CountryBordersTest {
+
+    private CountryBorders borders;
+
+    @Before
+    public void setUp() throws IOException {
+        // A square country with a hole, and a second country filling part of that hole
+        borders = CountryBorders.read(new ByteArrayInputStream(pack(
+                new String[]{"Outer", "Inner"},
+                new double[][][]{
+                        {square(0, 0, 10, 10), square(4, 4, 6, 6)},
+                        {square(4.5, 4.5, 5.5, 5.5), square(-20.12345, -20, -19, -19)}
+                })));
+    }
+
+    @Test
+    public void testPointInPolygon() {
+        assertEquals(2, borders.getCountryCount());
+        assertEquals("Outer", borders.findCountry(1.0, 1.0));
+        assertEquals("Inner", borders.findCountry(5.0, 5.0));
+        assertEquals("Inner", borders.findCountry(-19.5, -19.5));
+    }
+
+    @Test
+    public void testHolesAndOutsidePoints() {
+        // Inside the hole of "Outer" but outside "Inner"
+        assertNull(borders.findCountry(4.2, 4.2));
+        assertNull(borders.findCountry(-19.5, -20.2));
+        assertNull(borders.findCountry(50.0, 50.0));
+    }
+
+    @Test
+    public void testDeltaEncodingKeepsPrecision() {
+        // Edge at -20.12345 must survive the 1e-5 fixed point round trip
+        assertEquals("Inner", borders.findCountry(-19.5, -20.1234));
+        assertNull(borders.findCountry(-19.5, -20.1235));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsUnknownFile() throws IOException {
+        CountryBorders.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6}));
+    }
+
+    @Test
+    public void testDetectorPrefersBordersOverOverlappingBoxes() throws IOException {
+        // Vienna sits inside both the Austrian and the Hungarian bounding box
+        CountryBorders austria = CountryBorders.read(new ByteArrayInputStream(pack(
+                new String[]{"Austria"},
+                new double[][][]{{square(16.0, 47.8, 16.6, 48.4)}})));
+        CountryDetector detector = new CountryDetector(austria, null);
+
+        assertEquals("Austria", detector.getCountryFromCoordinates(48.2082, 16.3738));
+        // Outside every polygon the detector still falls back to the boxes
+        assertEquals("Japan", detector.getCountryFromCoordinates(35.6762, 139.6503));
+    }
+
+    @Test
+    public void testDatasetNamesMapToSharedIds() throws IOException {
+        // Natural Earth spells out the full name; it must land on the same id as the contacts
+        CountryBorders borders = CountryBorders.read(new ByteArrayInputStream(pack(
+                new String[]{"United States of America", "Atlantis"},
+                new double[][][]{{square(-78.0, 38.0, -76.0, 40.0)}, {square(-30.0, 30.0, -28.0, 32.0)}})));
+        CountryDetector detector = new CountryDetector(borders, null);
+
+        int unitedStates = detector.getCountryIdFromCoordinates(38.9072, -77.0369);
+        assertEquals(CountryCodes.indexOfKey("United_States"), unitedStates);
+        assertEquals("United_States", detector.getCountryName(unitedStates));
+        // A country CountryCodes does not list still gets an id of its own
+        int atlantis = detector.getCountryIdFromCoordinates(31.0, -29.0);
+        assertTrue(atlantis > CountryDetector.UNKNOWN_COUNTRY);
+        assertEquals("Atlantis", detector.getCountryName(atlantis));
+    }
+
+    @Test
+    public void testPackedFixture() throws IOException {
+        CountryBorders packed;
+        try (InputStream in = openPackedFixture(CountryBorders.ASSETS_FILE)) {
+            packed = CountryBorders.read(in);
+        }
+
+        assertEquals(4, packed.getCountryCount());
+        // Either side of the Rhine: Strasbourg and Kehl, Mulhouse and Freiburg
+        assertEquals("France", packed.findCountry(48.5734, 7.7521));
+        assertEquals("Germany", packed.findCountry(48.5700, 7.8150));
+        assertEquals("France", packed.findCountry(47.7508, 7.3359));
+        assertEquals("Germany", packed.findCountry(47.9990, 7.8421));
+        assertEquals("Switzerland", packed.findCountry(47.5596, 7.5886));
+        // Büsingen is a German enclave: a hole in Switzerland and a second German polygon
+        assertEquals("Germany", packed.findCountry(47.6969, 8.6900));
+        assertEquals("Switzerland", packed.findCountry(47.6973, 8.6349));
+        assertNull(packed.findCountry(48.8566, 2.3522));
+        // Fiji's ring crosses the 180° meridian and is split into one ring per side
+        assertEquals("Fiji", packed.findCountry(-17.0, 179.0));
+        assertEquals("Fiji", packed.findCountry(-17.0, -179.8));
+        assertNull(packed.findCountry(-17.0, -179.2));
+        assertNull(packed.findCountry(-17.0, 0.0));
+    }
+
+    @Test
+    public void testPackagedAsset() {
+        // What the APK ships: src/main/geo, or the pinned Natural Earth release the build fetches
+        CountryBorders packaged = CountryBorders.load(ApplicationProvider.getApplicationContext());
+        assertNotNull(CountryBorders.ASSETS_FILE + " is not packaged", packaged);
+        assertTrue(packaged.getCountryCount() > 150);
+
+        CountryDetector detector = new CountryDetector(packaged, null);
+        assertEquals("Austria", detector.getCountryFromCoordinates(48.2082, 16.3738));
+        assertEquals("Slovakia", detector.getCountryFromCoordinates(48.1486, 17.1077));
+        assertEquals("France", detector.getCountryFromCoordinates(48.5734, 7.7521));
+        // Russia either side of the 180° meridian: Anadyr and Uelen
+        assertEquals("Russia", detector.getCountryFromCoordinates(64.7337, 177.5089));
+        assertEquals("Russia", detector.getCountryFromCoordinates(66.1600, -169.8100));
+    }
+
+    /**
+     * Packed from app/src/test/geo/countries.geojson by the same build task and settings as the
+     * shipped assets, and put on the unit test classpath.
+     */
+    static InputStream openPackedFixture(String name) throws IOException {
+        InputStream in = CountryBordersTest.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new FileNotFoundException(name + " is missing; it is packed when Gradle runs the unit tests");
+        }
+        return in;
+    }
+
+    private static double[] square(double minLng, double minLat, double maxLng, double maxLat) {
+        return new double[]{minLng, minLat, maxLng, minLat, maxLng, maxLat, minLng, maxLat};
+    }
+
+    private static byte[] pack(String[] names, double[][][] rings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(CountryBorders.MAGIC);
+        data.writeShort(CountryBorders.VERSION);
+        data.writeInt(names.length);
+        for (int c = 0; c < names.length; c++) {
+            data.writeUTF(names[c]);
+            data.writeInt(rings[c].length);
+            for (double[] ring : rings[c]) {
+                data.writeInt(ring.length / 2);
+                int lastLng = 0;
+                int lastLat = 0;
+                for (int i = 0; i < ring.length; i += 2) {
+                    int lng = (int) Math.round(ring[i] * CountryBorders.COORDINATE_SCALE);
+                    int lat = (int) Math.round(ring[i + 1] * CountryBorders.COORDINATE_SCALE);
+                    writeZigZagVarInt(data, lng - lastLng);
+                    writeZigZagVarInt(data, lat - lastLat);
+                    lastLng = lng;
+                    lastLat = lat;
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeZigZagVarInt(DataOutputStream data, int value) throws IOException {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            data.writeByte((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        data.writeByte(zigzag);
+    }
+}
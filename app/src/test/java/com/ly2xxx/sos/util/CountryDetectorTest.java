@@ -0,0 +1,207 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import com.ly2xxx.sos.util.CountryDetector.CountryCandidate;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class CountryDetectorTest {
+
+    private CountryDetector detector;
+
+    @Before
+    public void setUp() {
+        detector = new CountryDetector();
+    }
+
+    @Test
+    public void testCapitals() {
+        assertEquals("United_States", detector.getCountryFromCoordinates(38.9072, -77.0369));
+        assertEquals("France", detector.getCountryFromCoordinates(48.8566, 2.3522));
+        assertEquals("Japan", detector.getCountryFromCoordinates(35.6762, 139.6503));
+        assertEquals("Australia", detector.getCountryFromCoordinates(-35.2809, 149.1300));
+        assertEquals("Brazil", detector.getCountryFromCoordinates(-15.7939, -47.8828));
+    }
+
+    @Test
+    public void testPartlyOverlappingBoxesKeepTableOrder() {
+        // Vienna is also in the Hungarian box, which is the smaller one
+        assertEquals("Austria", detector.getCountryFromCoordinates(48.2082, 16.3738));
+        // There is no Slovak box; Austria is listed before Hungary, as before
+        assertEquals("Austria", detector.getCountryFromCoordinates(48.1486, 17.1077));
+        // Strasbourg is also in the German box
+        assertEquals("France", detector.getCountryFromCoordinates(48.5734, 7.7521));
+    }
+
+    @Test
+    public void testSmallCountryWinsOverEnclosingBox() {
+        // Each of these lies inside a larger neighbour's bounding box too
+        assertEquals("Singapore", detector.getCountryFromCoordinates(1.3521, 103.8198));
+        assertEquals("Qatar", detector.getCountryFromCoordinates(25.2854, 51.5310));
+        assertEquals("Kuwait", detector.getCountryFromCoordinates(29.3759, 47.9774));
+        assertEquals("Bahrain", detector.getCountryFromCoordinates(26.2285, 50.5860));
+    }
+
+    @Test
+    public void testAntimeridianBox() {
+        // Russia's box crosses the 180° meridian
+        assertEquals("Russia", detector.getCountryFromCoordinates(64.7337, 177.5089));
+        assertEquals("Russia", detector.getCountryFromCoordinates(66.0, -170.0));
+    }
+
+    @Test
+    public void testRegionalFallback() {
+        assertEquals("Unknown", detector.getCountryFromCoordinates(0.0, -150.0));
+        assertEquals("Unknown", detector.getCountryFromCoordinates(-80.0, 0.0));
+    }
+
+    @Test
+    public void testLookupIsDeterministic() {
+        String first = detector.getCountryFromCoordinates(50.0, 14.5);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first, new CountryDetector().getCountryFromCoordinates(50.0, 14.5));
+        }
+    }
+
+    @Test
+    public void testGridCellEdges() {
+        // Points exactly on the poles and the antimeridian must not index outside the grid
+        assertNotNull(detector.getCountryFromCoordinates(90.0, 180.0));
+        assertNotNull(detector.getCountryFromCoordinates(-90.0, -180.0));
+    }
+
+    @Test
+    public void testRepeatedFixesHitTheCache() {
+        detector.getCountryFromCoordinates(48.8566, 2.3522);
+        assertEquals(0, detector.getCacheHits());
+        assertEquals(1, detector.getCacheMisses());
+
+        // ~50 m further north-east: same answer without a new detection
+        assertEquals("France", detector.getCountryFromCoordinates(48.8570, 2.3527));
+        assertEquals(1, detector.getCacheHits());
+
+        // Several kilometres away: detection runs again
+        assertEquals("France", detector.getCountryFromCoordinates(48.9000, 2.4000));
+        assertEquals(1, detector.getCacheHits());
+        assertEquals(2, detector.getCacheMisses());
+    }
+
+    @Test
+    public void testCacheDoesNotHideCountryChange() {
+        assertEquals("Japan", detector.getCountryFromCoordinates(35.6762, 139.6503));
+        assertEquals("France", detector.getCountryFromCoordinates(48.8566, 2.3522));
+        assertEquals(0, detector.getCacheHits());
+    }
+
+    @Test
+    public void testCountryIds() {
+        int france = detector.getCountryIdFromCoordinates(48.8566, 2.3522);
+        assertEquals("France", detector.getCountryName(france));
+        assertEquals(france, detector.getCountryIdFromCoordinates(45.7640, 4.8357));
+
+        int ocean = detector.getCountryIdFromCoordinates(0.0, -150.0);
+        assertEquals(CountryDetector.UNKNOWN_COUNTRY, ocean);
+        assertEquals("Unknown", detector.getCountryName(ocean));
+        assertEquals("Unknown", detector.getCountryName(-5));
+    }
+
+    @Test
+    public void testCountryIdsAreCountryCodes() {
+        assertEquals(CountryCodes.size(), CountryDetector.UNKNOWN_COUNTRY);
+        for (int id = 0; id < CountryCodes.size(); id++) {
+            assertEquals(CountryCodes.getKey(id), detector.getCountryName(id));
+        }
+        assertEquals(CountryCodes.indexOfKey("Japan"), detector.getCountryIdFromCoordinates(35.6762, 139.6503));
+        // Regional fallback ids come from the same table (Bay of Biscay, outside every box)
+        assertEquals(CountryCodes.indexOfKey("Germany"), detector.getCountryIdFromCoordinates(45.0, -9.0));
+    }
+
+    @Test
+    public void testLookupDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        // Far-apart fixes so every call misses the memo and runs the full lookup, including the
+        // regional fallback for the last one
+        double[] fixes = {48.8566, 2.3522, 35.6762, 139.6503, 1.3521, 103.8198, 25.2854, 51.5310,
+                64.7337, 177.5089, 60.0, 100.0, 0.0, -150.0};
+        int calls = 10000;
+        int checksum = 0;
+        for (int i = 0; i < calls * 2; i++) {
+            int fix = (i % (fixes.length / 2)) * 2;
+            checksum += detector.getCountryIdFromCoordinates(fixes[fix], fixes[fix + 1]);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            int fix = (i % (fixes.length / 2)) * 2;
+            checksum += detector.getCountryIdFromCoordinates(fixes[fix], fixes[fix + 1]);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum != 0);
+        // Allow for the measurement itself, but not for anything per call
+        assertTrue("Allocated " + allocated + " bytes in " + calls + " lookups", allocated < calls);
+    }
+
+    @Test
+    public void testCandidatesWellInsideOneCountry() {
+        List<CountryCandidate> candidates = detector.getCountryCandidates(48.8566, 2.3522, 500f);
+        assertEquals(1, candidates.size());
+        assertEquals("France", candidates.get(0).getCountryName());
+        assertEquals(1.0, candidates.get(0).getFraction(), 0.0);
+    }
+
+    @Test
+    public void testCandidatesWithoutAccuracy() {
+        List<CountryCandidate> candidates = detector.getCountryCandidates(35.6762, 139.6503, 0f);
+        assertEquals(1, candidates.size());
+        assertEquals("Japan", candidates.get(0).getCountryName());
+    }
+
+    @Test
+    public void testCandidatesAcrossBorder() {
+        // Singapore's box is ~45 km wide; a 30 km circle around it reaches where the Malaysian
+        // and Indonesian boxes overlap, and Indonesia is listed first
+        List<CountryCandidate> candidates = detector.getCountryCandidates(1.3521, 103.8198, 30000f);
+        assertEquals(2, candidates.size());
+        assertEquals("Singapore", candidates.get(0).getCountryName());
+        assertEquals("Indonesia", candidates.get(1).getCountryName());
+        double total = candidates.get(0).getFraction() + candidates.get(1).getFraction();
+        assertEquals(1.0, total, 1e-9);
+        assertTrue(candidates.get(0).getFraction() >= candidates.get(1).getFraction());
+        // Every country listed was actually sampled inside the circle
+        assertTrue(candidates.get(1).getFraction() > 0.0);
+    }
+
+    @Test
+    public void testCandidatesDoNotTouchTheCache() {
+        detector.getCountryFromCoordinates(1.3521, 103.8198);
+        detector.getCountryCandidates(1.3521, 103.8198, 30000f);
+        assertEquals("Singapore", detector.getCountryFromCoordinates(1.3522, 103.8199));
+        assertEquals(2, detector.getCacheHits());
+    }
+
+    @Test
+    public void testIsValidCoordinate() {
+        assertTrue(detector.isValidCoordinate(0.0, 0.0));
+        assertTrue(detector.isValidCoordinate(-90.0, 180.0));
+        assertFalse(detector.isValidCoordinate(91.0, 0.0));
+        assertFalse(detector.isValidCoordinate(0.0, -181.0));
+    }
+}
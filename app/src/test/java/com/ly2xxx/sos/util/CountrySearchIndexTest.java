@@ -0,0 +1,224 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class CountrySearchIndexTest {
+
+    private String[] names;
+    private CountrySearchIndex index;
+
+    @Before
+    public void setUp() {
+        names = new String[CountryCodes.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = CountryCodes.getKey(i).replace('_', ' ');
+        }
+        index = new CountrySearchIndex(names);
+    }
+
+    @Test
+    public void testEmptyQueryMatchesEverything() {
+        int[] all = index.find("");
+        assertEquals(names.length, all.length);
+        for (int i = 0; i < all.length; i++) {
+            assertEquals(i, all[i]);
+        }
+        assertEquals(names.length, index.find("   ").length);
+        assertEquals(names.length, index.findPrefix("").length);
+    }
+
+    @Test
+    public void testSubstringMatches() {
+        int[] matches = index.find("KINGDOM");
+        assertEquals(1, matches.length);
+        assertEquals("United Kingdom", names[matches[0]]);
+
+        assertArrayEquals(bruteForceContains("land"), index.find("land"));
+        assertArrayEquals(bruteForceContains("united"), index.find(" United "));
+        assertEquals(0, index.find("atlantis").length);
+        assertArrayEquals(bruteForceContains("q"), index.find("q"));
+    }
+
+    @Test
+    public void testPrefixMatches() {
+        assertArrayEquals(bruteForceStartsWith("united"), index.findPrefix("United"));
+        assertTrue(index.findPrefix("united").length >= 3);
+        assertEquals(0, index.findPrefix("kingdom").length);
+        assertEquals(0, index.findPrefix("zz").length);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(15);
+        for (int i = 0; i < 5000; i++) {
+            String name = names[random.nextInt(names.length)];
+            int start = random.nextInt(name.length());
+            int end = start + 1 + random.nextInt(name.length() - start);
+            String query = name.substring(start, end);
+            if (random.nextInt(4) == 0) {
+                // Mutate a character so misses are exercised too
+                char[] chars = query.toCharArray();
+                chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+                query = new String(chars);
+            }
+            assertArrayEquals(query, bruteForceContains(query), index.find(query));
+            assertArrayEquals(query, bruteForceStartsWith(query), index.findPrefix(query));
+        }
+    }
+
+    @Test
+    public void testDuplicateNames() {
+        CountrySearchIndex duplicates = new CountrySearchIndex(new String[] {"Niger", "Nigeria", "Niger"});
+        assertArrayEquals(new int[] {0, 1, 2}, duplicates.find("niger"));
+        assertArrayEquals(new int[] {0, 1, 2}, duplicates.findPrefix("nig"));
+        assertArrayEquals(new int[] {1}, duplicates.find("geria"));
+        assertEquals(3, duplicates.size());
+    }
+
+    @Test
+    public void testFoldsAccentsAndSeparators() {
+        assertEquals("cote divoire", CountrySearchIndex.normalize("  Côte d'Ivoire "));
+        assertEquals("turkiye", CountrySearchIndex.normalize("TÜRKIYE"));
+        assertEquals("bosnia herzegovina", CountrySearchIndex.normalize("Bosnia_Herzegovina"));
+        assertEquals("usa", CountrySearchIndex.normalize("U.S.A."));
+
+        CountrySearchIndex accented = new CountrySearchIndex(new String[] {"Côte d'Ivoire", "Spain"});
+        assertArrayEquals(new int[] {0}, accented.find("cote"));
+        assertArrayEquals(new int[] {0}, accented.find("CÔTE D'IVOIRE"));
+        assertArrayEquals(new int[] {0}, accented.findPrefix("cote div"));
+    }
+
+    @Test
+    public void testAliasesMatch() {
+        CountrySearchIndex withAliases = aliasedIndex();
+        assertArrayEquals(new int[] {indexOf("Spain")}, withAliases.search("España"));
+        assertArrayEquals(new int[] {indexOf("Spain")}, withAliases.search("espana"));
+        assertEquals(indexOf("Turkey"), withAliases.search("Türkiye")[0]);
+        assertEquals(indexOf("United Kingdom"), withAliases.search("UK")[0]);
+        assertEquals(indexOf("Germany"), withAliases.findPrefix("deutsch")[0]);
+        // ISO codes are not aliases, so "che" does not drag Switzerland in
+        assertFalse(contains(withAliases.find("che"), indexOf("Switzerland")));
+    }
+
+    @Test
+    public void testSearchRanksExactThenPrefixThenSubstring() {
+        int[] matches = index.search("Niger");
+        assertEquals(indexOf("Nigeria"), matches[0]);
+        assertEquals(1, matches.length);
+
+        CountrySearchIndex ranked = new CountrySearchIndex(
+                new String[] {"Guinea Bissau", "Equatorial Guinea", "Guinea", "New Guinea Islands", "Gui"});
+        assertArrayEquals(new int[] {2, 0, 1, 3}, ranked.search("guinea"));
+        assertArrayEquals(new int[] {4, 0, 2, 1, 3}, ranked.search("gui"));
+        // A query that matches something gets no typo matches on top
+        assertArrayEquals(new int[] {1}, new CountrySearchIndex(new String[] {"China", "Chinatown"}).search("chinat"));
+    }
+
+    @Test
+    public void testSearchToleratesTypos() {
+        assertEquals(indexOf("Germany"), index.search("germny")[0]);
+        assertEquals(indexOf("Switzerland"), index.search("swizterland")[0]);
+        assertEquals(indexOf("United Kingdom"), index.search("unted kingdom")[0]);
+        assertEquals(indexOf("Philippines"), index.search("phillipines")[0]);
+        // A swap of neighbouring letters is one typo
+        assertArrayEquals(new int[] {indexOf("France")}, index.search("Frnace"));
+        assertArrayEquals(new int[] {indexOf("United Kingdom")}, index.search("untied kingdom"));
+        // So is a letter too many
+        assertArrayEquals(new int[] {indexOf("France")}, index.search("Francee"));
+        assertArrayEquals(new int[] {indexOf("Germany")}, index.search("Germanyy"));
+        assertEquals(indexOf("Switzerland"), index.search("Switzerlandd")[0]);
+        // Short queries must match exactly, or every three-letter typo would match everything
+        assertEquals(0, index.search("xyz").length);
+        assertEquals(0, index.search("qwertyuiop").length);
+    }
+
+    @Test
+    public void testWordsInAnyOrder() {
+        assertArrayEquals(new int[] {indexOf("United Kingdom")}, index.search("kingdom united"));
+        assertArrayEquals(new int[] {indexOf("United States")}, index.search("states united"));
+        assertArrayEquals(new int[] {indexOf("United Kingdom")}, index.search("Kingdom, United"));
+    }
+
+    @Test
+    public void testTyposAreJudgedPerQueryWord() {
+        // "united" is within two edits of "united k" but the query has no typo to forgive
+        assertArrayEquals(new int[] {indexOf("United Kingdom")}, index.search("United K"));
+        // Two letters too many is over the budget of a six-letter word
+        assertEquals(0, new CountrySearchIndex(new String[] {"Chad"}).search("chadan").length);
+        assertArrayEquals(new int[] {0}, new CountrySearchIndex(new String[] {"Chad"}).search("chadd"));
+        // Every query word has to match the same name
+        assertEquals(0, index.search("untied xyzzy").length);
+    }
+
+    @Test
+    public void testSearchCoversFind() {
+        Random random = new Random(16);
+        for (int i = 0; i < 2000; i++) {
+            String name = names[random.nextInt(names.length)];
+            int start = random.nextInt(name.length());
+            String query = name.substring(start, start + 1 + random.nextInt(name.length() - start));
+            int[] found = index.find(query);
+            int[] searched = index.search(query);
+            assertTrue(query, searched.length >= found.length);
+            for (int position : found) {
+                assertTrue(query, contains(searched, position));
+            }
+        }
+    }
+
+    private CountrySearchIndex aliasedIndex() {
+        String[][] aliases = new String[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            aliases[i] = CountryCodes.getAliases(i);
+        }
+        return new CountrySearchIndex(names, aliases);
+    }
+
+    private int indexOf(String name) {
+        return Arrays.asList(names).indexOf(name);
+    }
+
+    private static boolean contains(int[] positions, int position) {
+        for (int p : positions) {
+            if (p == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] bruteForceContains(String query) {
+        String needle = CountrySearchIndex.normalize(query);
+        int[] matches = new int[names.length];
+        int found = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (CountrySearchIndex.normalize(names[i]).contains(needle)) {
+                matches[found++] = i;
+            }
+        }
+        return Arrays.copyOf(matches, found);
+    }
+
+    private int[] bruteForceStartsWith(String query) {
+        String prefix = CountrySearchIndex.normalize(query);
+        int[] matches = new int[names.length];
+        int found = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (CountrySearchIndex.normalize(names[i]).startsWith(prefix)) {
+                matches[found++] = i;
+            }
+        }
+        return Arrays.copyOf(matches, found);
+    }
+}
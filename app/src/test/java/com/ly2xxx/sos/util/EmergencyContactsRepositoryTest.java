@@ -0,0 +1,276 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.AssetManager;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.ly2xxx.sos.model.EmergencyContact;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class EmergencyContactsRepositoryTest {
+
+    @Test
+    public void testSnapshotSortsAndIndexesByKey() {
+        Map<String, String[]> raw = new LinkedHashMap<>();
+        raw.put("United_Kingdom", new String[]{"999", "999", "999", "112"});
+        raw.put("Germany", new String[]{"110", "112", "112", "112"});
+        raw.put("Canada", new String[]{"911", "911", "911", "911"});
+
+        EmergencyContactsRepository.Snapshot snapshot = new EmergencyContactsRepository.Snapshot(raw, true);
+
+        assertTrue(snapshot.isLoaded());
+        assertEquals(3, snapshot.size());
+        List<EmergencyContactsRepository.Entry> entries = snapshot.getEntries();
+        assertEquals("Canada", entries.get(0).getDisplayName());
+        assertEquals("Germany", entries.get(1).getDisplayName());
+        assertEquals("United Kingdom", entries.get(2).getDisplayName());
+        assertEquals("United_Kingdom", entries.get(2).getKey());
+        assertEquals("110", snapshot.getContact("Germany").getPolice());
+        assertNull(snapshot.getContact("Atlantis"));
+        assertNull(snapshot.getContact(null));
+    }
+
+    @Test
+    public void testSnapshotAppliesOneSanitisationRule() {
+        Map<String, String[]> raw = new LinkedHashMap<>();
+        raw.put("France", new String[]{"17", "15", "18", "112"});
+        raw.put("Nowhere", new String[]{"12", null, "", "call911"});
+        raw.put("Bad<Key>", new String[]{"911", "911", "911", "911"});
+
+        EmergencyContactsRepository.Snapshot snapshot = new EmergencyContactsRepository.Snapshot(raw, true);
+
+        assertEquals(1, snapshot.size());
+        // Numbers failing validation fall back to the universal number, same as a missing one
+        EmergencyContact france = snapshot.getContact("France");
+        assertEquals("112", france.getPolice());
+        assertEquals("112", france.getGeneral());
+        assertNull(snapshot.getContact("Nowhere"));
+        assertNull(snapshot.getContact("Bad<Key>"));
+    }
+
+    @Test
+    public void testSnapshotResolvesAnySpelling() {
+        Map<String, String[]> raw = new LinkedHashMap<>();
+        raw.put("United_Kingdom", new String[]{"999", "999", "999", "112"});
+        raw.put("United_States", new String[]{"911", "911", "911", "911"});
+
+        EmergencyContactsRepository.Snapshot snapshot = new EmergencyContactsRepository.Snapshot(raw, true);
+
+        EmergencyContact unitedKingdom = snapshot.getContact("United_Kingdom");
+        assertSame(unitedKingdom, snapshot.getContact("united kingdom"));
+        assertSame(unitedKingdom, snapshot.getContact("UK"));
+        assertSame(unitedKingdom, snapshot.getContact("GBR"));
+        assertSame(snapshot.getContact("United_States"), snapshot.getContact("USA"));
+        // Aliases only resolve for countries that were loaded
+        assertNull(snapshot.getContact("DE"));
+    }
+
+    @Test
+    public void testSnapshotIsIndexedByCountryId() {
+        Map<String, String[]> raw = new LinkedHashMap<>();
+        raw.put("Japan", new String[]{"110", "119", "119", "110"});
+
+        EmergencyContactsRepository.Snapshot snapshot = new EmergencyContactsRepository.Snapshot(raw, true);
+
+        assertSame(snapshot.getContact("Japan"), snapshot.getContact(CountryCodes.indexOfKey("Japan")));
+        assertNull(snapshot.getContact(CountryCodes.indexOfKey("France")));
+        assertNull(snapshot.getContact(CountryDetector.UNKNOWN_COUNTRY));
+        assertNull(snapshot.getContact(-1));
+    }
+
+    @Test
+    public void testLookupsDecodeOnlyTheirOwnRecord() {
+        Map<String, String[]> raw = new LinkedHashMap<>();
+        raw.put("Germany", new String[]{"110", "112", "112", "112"});
+        raw.put("Japan", new String[]{"110", "119", "119", "110"});
+        raw.put("United_States", new String[]{"911", "911", "911", "911"});
+        EmergencyContactsRepository.Records source = new EmergencyContactsRepository.MapRecords(raw);
+        int[] decoded = new int[1];
+        EmergencyContactsRepository.Records counting = new EmergencyContactsRepository.Records() {
+            @Override
+            public int size() {
+                return source.size();
+            }
+
+            @Override
+            public int find(String key) {
+                return source.find(key);
+            }
+
+            @Override
+            public String getKey(int index) {
+                return source.getKey(index);
+            }
+
+            @Override
+            public String[] getNumbers(int index) {
+                decoded[0]++;
+                return source.getNumbers(index);
+            }
+        };
+
+        EmergencyContactsRepository.Snapshot snapshot = new EmergencyContactsRepository.Snapshot(counting, true);
+        assertEquals(0, decoded[0]);
+
+        EmergencyContact japan = snapshot.getContact(CountryCodes.indexOfKey("Japan"));
+        assertEquals("119", japan.getAmbulance());
+        assertSame(japan, snapshot.getContact("JP"));
+        assertNull(snapshot.getContact(CountryCodes.indexOfKey("France")));
+        assertNull(snapshot.getContact(CountryCodes.indexOfKey("France")));
+        // Japan once; France has no record to decode
+        assertEquals(1, decoded[0]);
+
+        assertEquals(3, snapshot.getEntries().size());
+        assertEquals(4, decoded[0]);
+    }
+
+    @Test
+    public void testStreamingParserSurvivesShortReads() throws IOException {
+        String json = "{\"United_States\": {\"police\": \"911\", \"ambulance\": \"911\", \"fire\": \"911\", \"general\": \"911\"},"
+                + " \"United_Kingdom\": {\"police\": \"999\", \"general\": \"112\", \"notes\": [\"ignored\"]},"
+                + " \"Broken\": \"not an object\"}";
+        // Hands out one byte per read and reports nothing available, like a compressed asset
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+
+        Map<String, String[]> raw = EmergencyContactsRepository.readEmergencyContacts(trickle);
+
+        assertEquals(2, raw.size());
+        assertArrayEquals(new String[]{"911", "911", "911", "911"}, raw.get("United_States"));
+        assertArrayEquals(new String[]{"999", null, null, "112"}, raw.get("United_Kingdom"));
+        assertFalse(raw.containsKey("Broken"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingParserRejectsTruncatedFile() throws IOException {
+        EmergencyContactsRepository.readEmergencyContacts(new ByteArrayInputStream(
+                "{\"France\": {\"police\": \"17\"".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() {
+        Map<String, String[]> raw = new LinkedHashMap<>();
+        raw.put("Canada", new String[]{"911", "911", "911", "911"});
+        new EmergencyContactsRepository.Snapshot(raw, true).getEntries().clear();
+    }
+
+    @Test
+    public void testSanitizers() {
+        assertEquals("United States", EmergencyContactsRepository.sanitizeCountryName("United_States"));
+        assertNull(EmergencyContactsRepository.sanitizeCountryName("Côte_d'Ivoire"));
+        assertEquals("+1-555-123-4567", EmergencyContactsRepository.sanitizePhoneNumber(" +1-555-123-4567 "));
+        assertNull(EmergencyContactsRepository.sanitizePhoneNumber("911; rm -rf /"));
+    }
+
+    @Test
+    public void testSharedInstanceLoadsOnce() {
+        Context context = ApplicationProvider.getApplicationContext();
+        EmergencyContactsRepository repository = EmergencyContactsRepository.getInstance(context);
+
+        assertSame(repository, EmergencyContactsRepository.getInstance(context));
+        EmergencyContactsRepository.Snapshot snapshot = repository.getSnapshot();
+        assertTrue(snapshot.isLoaded());
+        assertSame(snapshot, repository.getSnapshot());
+        assertEquals("911", snapshot.getContact("United_States").getPolice());
+        // Every packaged country has a shared id, so detector results always find their numbers
+        for (EmergencyContactsRepository.Entry entry : snapshot.getEntries()) {
+            assertNotEquals(entry.getKey(), CountryCodes.NOT_FOUND, CountryCodes.indexOfKey(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testAsyncLoadIsSharedWithBlockingLookups() throws Exception {
+        EmergencyContactsRepository repository =
+                EmergencyContactsRepository.getInstance(ApplicationProvider.getApplicationContext());
+
+        Future<EmergencyContactsRepository.Snapshot> future = repository.loadAsync();
+        assertSame(future, repository.loadAsync());
+        assertSame(future.get(), repository.getSnapshot());
+        assertSame(repository.getSnapshot(), repository.peekSnapshot());
+    }
+
+    @Test
+    public void testWhenLoadedCallsBackOnMainThread() {
+        EmergencyContactsRepository repository =
+                EmergencyContactsRepository.getInstance(ApplicationProvider.getApplicationContext());
+        EmergencyContactsRepository.Snapshot[] delivered = new EmergencyContactsRepository.Snapshot[1];
+        Thread[] callbackThread = new Thread[1];
+
+        repository.getSnapshot();
+        repository.whenLoaded(snapshot -> {
+            delivered[0] = snapshot;
+            callbackThread[0] = Thread.currentThread();
+        });
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertSame(repository.getSnapshot(), delivered[0]);
+        assertSame(Looper.getMainLooper().getThread(), callbackThread[0]);
+    }
+
+    @Test
+    public void testFailedLoadIsCachedUntilRetried() throws Exception {
+        AssetManager assets = mock(AssetManager.class);
+        // No packed table, and the JSON fails once before it can be read
+        when(assets.openFd(anyString())).thenThrow(new FileNotFoundException());
+        when(assets.open("emergency_contacts.bin")).thenThrow(new FileNotFoundException());
+        when(assets.open("emergency_contacts.json"))
+                .thenThrow(new IOException("Disk error"))
+                .thenReturn(new ByteArrayInputStream(
+                        "{\"Germany\": {\"police\": \"110\", \"general\": \"112\"}}".getBytes(StandardCharsets.UTF_8)));
+        Context context = new ContextWrapper(ApplicationProvider.getApplicationContext()) {
+            @Override
+            public AssetManager getAssets() {
+                return assets;
+            }
+        };
+        EmergencyContactsRepository repository = new EmergencyContactsRepository(context);
+
+        EmergencyContactsRepository.Snapshot failed = repository.getSnapshot();
+        assertFalse(failed.isLoaded());
+        // Lookups don't retry, and share one empty snapshot
+        assertSame(failed, repository.getSnapshot());
+        verify(assets, times(1)).open("emergency_contacts.json");
+
+        EmergencyContactsRepository.Snapshot retried = repository.loadAsync().get();
+        assertTrue(retried.isLoaded());
+        assertEquals("110", retried.getContact("Germany").getPolice());
+        assertSame(retried, repository.getSnapshot());
+        assertSame(retried, repository.loadAsync().get());
+        verify(assets, times(2)).open("emergency_contacts.json");
+    }
+}
@@ -0,0 +1,119 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+
+import com.ly2xxx.sos.model.EmergencyContact;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class EmergencyContactsTableTest {
+
+    private EmergencyContactsTable table;
+
+    @Before
+    public void setUp() throws IOException {
+        // Same layout PackEmergencyContactsTask writes: keys sorted, numbers pooled
+        table = new EmergencyContactsTable(pack(
+                new String[]{"France", "Germany", "United_Kingdom"},
+                new String[]{"110", "112", "15", "17", "18", "999"},
+                new short[][]{{3, 2, 4, 1}, {0, 1, 1, 1}, {5, 5, 5, -1}}));
+    }
+
+    @Test
+    public void testFindExactKey() {
+        assertEquals(3, table.size());
+        assertEquals(0, table.find("France"));
+        assertEquals(1, table.find("Germany"));
+        assertEquals(2, table.find("United_Kingdom"));
+        assertEquals("United_Kingdom", table.getKey(2));
+    }
+
+    @Test
+    public void testFindMissingKey() {
+        assertEquals(-1, table.find("Atlantis"));
+        assertEquals(-1, table.find(""));
+        assertEquals(-1, table.find("france"));
+        assertEquals(-1, table.find("Germany "));
+    }
+
+    @Test
+    public void testDecodesRecords() {
+        EmergencyContact france = table.getContact(table.find("France"));
+        assertEquals("17", france.getPolice());
+        assertEquals("15", france.getAmbulance());
+        assertEquals("18", france.getFire());
+        assertEquals("112", france.getGeneral());
+
+        // Missing numbers decode to null and fall back to the model's default
+        EmergencyContact uk = table.getContact(table.find("United_Kingdom"));
+        assertEquals("999", uk.getPolice());
+        assertEquals("112", uk.getGeneral());
+    }
+
+    @Test
+    public void testNumbersAreShared() {
+        EmergencyContact germany = table.getContact(table.find("Germany"));
+        assertSame(germany.getAmbulance(), germany.getFire());
+        assertSame(germany.getGeneral(), table.getContact(table.find("France")).getGeneral());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsUnknownFile() throws IOException {
+        new EmergencyContactsTable(ByteBuffer.wrap(new byte[32]));
+    }
+
+    private static ByteBuffer pack(String[] keys, String[] pool, short[][] records) throws IOException {
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        List<Integer> keyOffsets = new ArrayList<>();
+        List<Integer> poolOffsets = new ArrayList<>();
+        for (String key : keys) {
+            keyOffsets.add(writeString(strings, key));
+        }
+        for (String number : pool) {
+            poolOffsets.add(writeString(strings, number));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(EmergencyContactsTable.MAGIC);
+        data.writeShort(EmergencyContactsTable.VERSION);
+        data.writeShort(0);
+        data.writeInt(keys.length);
+        data.writeInt(pool.length);
+        for (int offset : keyOffsets) {
+            data.writeInt(offset);
+        }
+        for (short[] record : records) {
+            for (short number : record) {
+                data.writeShort(number);
+            }
+        }
+        for (int offset : poolOffsets) {
+            data.writeInt(offset);
+        }
+        strings.writeTo(data);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static int writeString(ByteArrayOutputStream strings, String value) {
+        int offset = strings.size();
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        strings.write(utf8.length);
+        strings.write(utf8, 0, utf8.length);
+        return offset;
+    }
+}
@@ -0,0 +1,179 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GeoCellTableTest {
+
+    private static final int BITS = 10;
+
+    @Test
+    public void testCellKeyInterleavesAxes() {
+        // Bottom-left corner is cell 0, top-right is the last Morton code
+        assertEquals(0, GeoCellTable.cellKey(-90.0, -180.0, BITS));
+        assertEquals((1 << (2 * BITS)) - 1, GeoCellTable.cellKey(90.0, 180.0, BITS));
+        // One step east flips bit 0, one step north flips bit 1
+        double lngStep = 360.0 / (1 << BITS);
+        double latStep = 180.0 / (1 << BITS);
+        assertEquals(1, GeoCellTable.cellKey(-90.0, -180.0 + lngStep * 1.5, BITS));
+        assertEquals(2, GeoCellTable.cellKey(-90.0 + latStep * 1.5, -180.0, BITS));
+    }
+
+    @Test
+    public void testLookupFindsEnclosingRange() throws IOException {
+        int vienna = GeoCellTable.cellKey(48.2082, 16.3738, BITS);
+        GeoCellTable table = read(new String[]{"Austria"},
+                new int[]{0, vienna, vienna + 1},
+                new short[]{GeoCellTable.NO_COUNTRY, 0, GeoCellTable.NO_COUNTRY});
+
+        assertEquals(0, table.lookup(48.2082, 16.3738));
+        assertEquals("Austria", table.getCountryName(0));
+        assertEquals(GeoCellTable.NO_COUNTRY, table.lookup(0.0, 0.0));
+        assertEquals(GeoCellTable.NO_COUNTRY, table.lookup(89.0, 179.0));
+    }
+
+    @Test
+    public void testDetectorUsesCellTable() throws IOException {
+        int vienna = GeoCellTable.cellKey(48.2082, 16.3738, BITS);
+        GeoCellTable table = read(new String[]{"Austria"},
+                new int[]{0, vienna, vienna + 1},
+                new short[]{GeoCellTable.NO_COUNTRY, 0, GeoCellTable.NO_COUNTRY});
+        CountryDetector detector = new CountryDetector(null, table);
+
+        // Resolved by the table, without looking at the overlapping boxes
+        assertEquals("Austria", detector.getCountryFromCoordinates(48.2082, 16.3738));
+        // Sea cells fall through to the boxes
+        assertEquals("Japan", detector.getCountryFromCoordinates(35.6762, 139.6503));
+    }
+
+    @Test
+    public void testCellRangeIsMemoized() throws IOException {
+        int vienna = GeoCellTable.cellKey(48.2082, 16.3738, BITS);
+        GeoCellTable table = read(new String[]{"Austria"},
+                new int[]{0, vienna - 8, vienna + 8},
+                new short[]{GeoCellTable.NO_COUNTRY, 0, GeoCellTable.NO_COUNTRY});
+        CountryDetector detector = new CountryDetector(null, table);
+
+        assertEquals("Austria", detector.getCountryFromCoordinates(48.2082, 16.3738));
+        assertEquals(1, detector.getCacheMisses());
+
+        // Same cell, a few hundred metres away: answered from the remembered range
+        assertEquals("Austria", detector.getCountryFromCoordinates(48.2090, 16.3740));
+        assertEquals(1, detector.getCacheHits());
+
+        // Leaving the range triggers a new lookup
+        assertEquals("Japan", detector.getCountryFromCoordinates(35.6762, 139.6503));
+        assertEquals(2, detector.getCacheMisses());
+    }
+
+    @Test
+    public void testBorderCellWithoutPolygonsFallsBackToBoxes() throws IOException {
+        GeoCellTable table = read(new String[]{"Austria"},
+                new int[]{0}, new short[]{GeoCellTable.BORDER});
+        CountryDetector detector = new CountryDetector(null, table);
+
+        assertEquals("France", detector.getCountryFromCoordinates(48.8566, 2.3522));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsTableNotCoveringTheWorld() throws IOException {
+        read(new String[]{"Austria"}, new int[]{5}, new short[]{0});
+    }
+
+    @Test
+    public void testPackedFixtureAgreesWithBorders() throws IOException {
+        GeoCellTable table;
+        try (InputStream in = CountryBordersTest.openPackedFixture(GeoCellTable.ASSETS_FILE)) {
+            table = GeoCellTable.read(in);
+        }
+        CountryBorders borders;
+        try (InputStream in = CountryBordersTest.openPackedFixture(CountryBorders.ASSETS_FILE)) {
+            borders = CountryBorders.read(in);
+        }
+
+        assertEquals(4, table.getCountryCount());
+        assertEquals("Switzerland", table.getCountryName(table.lookup(47.3769, 8.5417)));
+        assertEquals(GeoCellTable.BORDER, table.lookup(48.5734, 7.7521));
+        assertEquals(GeoCellTable.NO_COUNTRY, table.lookup(48.8566, 2.3522));
+
+        // Every cell the rasteriser settled must agree with the polygons it was built from
+        int settled = 0;
+        for (double latitude = 46.513; latitude < 50.0; latitude += 0.05) {
+            for (double longitude = 5.513; longitude < 9.5; longitude += 0.05) {
+                int cell = table.lookup(latitude, longitude);
+                if (cell == GeoCellTable.BORDER) {
+                    continue;
+                }
+                String expected = borders.findCountry(latitude, longitude);
+                assertEquals(latitude + ", " + longitude, expected,
+                        cell == GeoCellTable.NO_COUNTRY ? null : table.getCountryName(cell));
+                settled++;
+            }
+        }
+        assertTrue(settled > 0);
+
+        // Together they resolve border towns exactly, enclave included
+        CountryDetector detector = new CountryDetector(borders, table);
+        assertEquals("France", detector.getCountryFromCoordinates(48.5734, 7.7521));
+        assertEquals("Germany", detector.getCountryFromCoordinates(48.5700, 7.8150));
+        assertEquals("Switzerland", detector.getCountryFromCoordinates(47.5596, 7.5886));
+        assertEquals("Germany", detector.getCountryFromCoordinates(47.6969, 8.6900));
+        assertEquals("Switzerland", detector.getCountryFromCoordinates(47.3769, 8.5417));
+    }
+
+    @Test
+    public void testPackagedAsset() {
+        // Rasterised by the same build step as the packaged borders, from the same source
+        Context context = ApplicationProvider.getApplicationContext();
+        GeoCellTable table = GeoCellTable.load(context);
+        assertNotNull(GeoCellTable.ASSETS_FILE + " is not packaged", table);
+        CountryBorders borders = CountryBorders.load(context);
+        assertNotNull(borders);
+        assertEquals(borders.getCountryCount(), table.getCountryCount());
+
+        // Inland points settle in one binary search, no polygon needed
+        assertEquals("Spain", table.getCountryName(table.lookup(40.4168, -3.7038)));
+        assertEquals("Austria", table.getCountryName(table.lookup(48.2082, 16.3738)));
+        assertEquals(GeoCellTable.NO_COUNTRY, table.lookup(30.0, -40.0));
+
+        CountryDetector detector = new CountryDetector(borders, table);
+        assertEquals("Slovakia", detector.getCountryFromCoordinates(48.1486, 17.1077));
+        assertEquals("France", detector.getCountryFromCoordinates(48.5734, 7.7521));
+    }
+
+    private static GeoCellTable read(String[] names, int[] starts, short[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(GeoCellTable.MAGIC);
+        data.writeShort(GeoCellTable.VERSION);
+        data.writeByte(BITS);
+        data.writeInt(names.length);
+        for (String name : names) {
+            data.writeUTF(name);
+        }
+        data.writeInt(starts.length);
+        for (int start : starts) {
+            data.writeInt(start);
+        }
+        for (short value : values) {
+            data.writeShort(value);
+        }
+        return GeoCellTable.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
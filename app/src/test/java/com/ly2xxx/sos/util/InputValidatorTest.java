@@ -0,0 +1,158 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class InputValidatorTest {
+
+    private static final String[] NUMBERS = {
+            "911", "999", "112", " 110 ", "+1-555-123-4567", "+49 30 12345", "(555) 123-4567",
+            "12", "123456789012345", "1234567890123456", "123456789012345678901", "", "   ", "N/A",
+            "call911", "911<script>", "911; rm -rf /", "javascript:alert('xss')", "tel:+1-555-EVIL",
+            "911\n\r\t<malicious>", "++911", "+", "( ) - ( )", "1 2 3", "٣٣٣"
+    };
+
+    @Test
+    public void testCountryNames() {
+        assertEquals("United States", InputValidator.sanitizeCountryName("United_States"));
+        assertEquals("Bosnia-Herzegovina", InputValidator.sanitizeCountryName(" Bosnia-Herzegovina "));
+        assertNull(InputValidator.sanitizeCountryName(null));
+        assertNull(InputValidator.sanitizeCountryName("  "));
+        assertNull(InputValidator.sanitizeCountryName("Country<script>"));
+        assertNull(InputValidator.sanitizeCountryName("Côte d'Ivoire"));
+        assertEquals(50, InputValidator.sanitizeCountryName(repeat('a', 80)).length());
+    }
+
+    @Test
+    public void testPhoneNumbers() {
+        assertEquals("110", InputValidator.sanitizePhoneNumber(" 110 "));
+        assertEquals("+1-555-123-4567", InputValidator.sanitizePhoneNumber("+1-555-123-4567"));
+        assertNull(InputValidator.sanitizePhoneNumber("12"));
+        assertNull(InputValidator.sanitizePhoneNumber("1234567890123456"));
+        assertNull(InputValidator.sanitizePhoneNumber("911<script>"));
+        assertNull(InputValidator.sanitizePhoneNumber("++911"));
+        assertNull(InputValidator.sanitizePhoneNumber(null));
+    }
+
+    @Test
+    public void testEmergencyNumbers() {
+        assertTrue(InputValidator.isValidEmergencyNumber("911"));
+        assertTrue(InputValidator.isValidEmergencyNumber("(555) 123-4567"));
+        assertTrue(InputValidator.isValidEmergencyNumber("123456789012345"));
+        assertFalse(InputValidator.isValidEmergencyNumber("1234567890123456"));
+        assertFalse(InputValidator.isValidEmergencyNumber("12"));
+        assertFalse(InputValidator.isValidEmergencyNumber("( ) - ( )"));
+        assertFalse(InputValidator.isValidEmergencyNumber("N/A"));
+        assertFalse(InputValidator.isValidEmergencyNumber("call911"));
+
+        assertEquals("+49 30 12345", InputValidator.sanitizePhoneNumberForIntent(" +49 30 12345 "));
+        // Refused outright, not stripped down to something dialable
+        assertNull(InputValidator.sanitizePhoneNumberForIntent("call911"));
+        assertNull(InputValidator.sanitizePhoneNumberForIntent("911<script>"));
+        assertNull(InputValidator.sanitizePhoneNumberForIntent("911; rm -rf /"));
+    }
+
+    @Test
+    public void testSearchQueriesAndDisplayText() {
+        assertEquals("España", InputValidator.sanitizeSearchQuery(" España "));
+        assertEquals("Countryscriptalertxssscript", InputValidator.sanitizeSearchQuery("Country<script>alert('xss')</script>"));
+        assertNull(InputValidator.sanitizeSearchQuery("<>"));
+        assertEquals(100, InputValidator.sanitizeSearchQuery(repeat('a', 120)).length());
+
+        assertEquals("UnitedStates", InputValidator.sanitizeDisplayText("United\u0000States\u0001"));
+        assertEquals("", InputValidator.sanitizeDisplayText(null));
+        assertEquals(103, InputValidator.sanitizeDisplayText(repeat('a', 150)).length());
+    }
+
+    @Test
+    public void testScannerMatchesRegexRulesExhaustively() {
+        // Every string of up to five characters over an alphabet covering each character class
+        // the rules distinguish, including trimmed control characters and non-ASCII digits
+        char[] alphabet = {'1', '+', '-', '(', ' ', '\t', '\u0001', 'a', '٣'};
+        char[] buffer = new char[5];
+        int checked = 0;
+        for (int length = 0; length <= buffer.length; length++) {
+            int combinations = (int) Math.pow(alphabet.length, length);
+            for (int n = 0; n < combinations; n++) {
+                int rest = n;
+                for (int i = 0; i < length; i++) {
+                    buffer[i] = alphabet[rest % alphabet.length];
+                    rest /= alphabet.length;
+                }
+                assertSameAsRegex(new String(buffer, 0, length));
+                checked++;
+            }
+        }
+        assertEquals(66430, checked);
+        assertSameAsRegex(null);
+        assertSameAsRegex("N/A");
+    }
+
+    @Test
+    public void testScannerMatchesRegexRulesOnLongNumbers() {
+        // Lengths around the 3-15 digit and 20 character limits
+        char[] alphabet = {'0', '5', '9', '0', '5', '9', '+', '-', '(', ')', ' ', '\n', '\u000B', 'x'};
+        Random random = new Random(20);
+        for (int n = 0; n < 200000; n++) {
+            char[] chars = new char[random.nextInt(26)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertSameAsRegex(new String(chars));
+        }
+        for (String number : NUMBERS) {
+            assertSameAsRegex(number);
+        }
+    }
+
+    private static void assertSameAsRegex(String number) {
+        String label = number == null ? "null" : "\"" + number.replace("\t", "\\t").replace("\n", "\\n") + "\"";
+        assertEquals(label, regexSanitizePhoneNumber(number), InputValidator.sanitizePhoneNumber(number));
+        assertEquals(label, compilingPerCall(number) != null, InputValidator.isValidEmergencyNumber(number));
+        assertEquals(label, compilingPerCall(number), InputValidator.sanitizePhoneNumberForIntent(number));
+    }
+
+    // sanitizePhoneNumber as it was written with regexes
+    private static String regexSanitizePhoneNumber(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.trim().isEmpty()) {
+            return null;
+        }
+        String cleaned = phoneNumber.trim();
+        if (!cleaned.matches("^[\\d\\s\\+\\-\\(\\)]+$")) {
+            return null;
+        }
+        String digitsOnly = cleaned.replaceAll("[^\\d\\+]", "");
+        return digitsOnly.matches("^\\+?\\d{3,15}$") ? cleaned : null;
+    }
+
+    // isValidEmergencyNumber and sanitizePhoneNumberForIntent, written with regexes
+    private static String compilingPerCall(String number) {
+        if (number == null || number.trim().isEmpty() || "N/A".equals(number)) {
+            return null;
+        }
+        String trimmed = number.trim();
+        if (trimmed.length() < 3 || trimmed.length() > 20
+                || !Pattern.matches("^\\+?[0-9\\s\\-\\(\\)]{3,20}$", trimmed)) {
+            return null;
+        }
+        int digits = trimmed.replaceAll("\\D", "").length();
+        return digits >= 3 && digits <= 15 ? trimmed : null;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.ly2xxx.sos.model.EmergencyContact;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LastKnownLocationStoreTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.getSharedPreferences("last_known_location", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    @Test
+    public void testNothingSavedYet() {
+        assertNull(new LastKnownLocationStore(context).load());
+    }
+
+    @Test
+    public void testSavedSnapshotSurvivesRestart() {
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        location.setLatitude(52.520008);
+        location.setLongitude(13.404954);
+        location.setTime(1700000000000L);
+        EmergencyContact germany = EmergencyContact.of("110", "112", "112", "112");
+
+        new LastKnownLocationStore(context).save(location, "Germany", germany);
+
+        // A fresh store reads it back, as a cold start would
+        LastKnownLocationStore.Snapshot snapshot = new LastKnownLocationStore(context).load();
+        assertNotNull(snapshot);
+        assertEquals(52.520008, snapshot.getLatitude(), 0.0);
+        assertEquals(13.404954, snapshot.getLongitude(), 0.0);
+        assertEquals(1700000000000L, snapshot.getTime());
+        assertEquals("Germany", snapshot.getCountry());
+        assertSame(germany, snapshot.getContact());
+    }
+
+    @Test
+    public void testTamperedNumbersAreIgnored() {
+        Location location = new Location(LocationManager.NETWORK_PROVIDER);
+        new LastKnownLocationStore(context).save(location, "Germany", EmergencyContact.of("110", "112", "112", "112"));
+        context.getSharedPreferences("last_known_location", Context.MODE_PRIVATE).edit()
+                .putString("police", "call110")
+                .commit();
+
+        assertNull(new LastKnownLocationStore(context).load());
+    }
+
+    @Test
+    public void testIncompleteSaveIsSkipped() {
+        LastKnownLocationStore store = new LastKnownLocationStore(context);
+        store.save(null, "Germany", EmergencyContact.of("110", "112", "112", "112"));
+        store.save(new Location(LocationManager.GPS_PROVIDER), "Germany", null);
+
+        assertNull(store.load());
+    }
+}
@@ -0,0 +1,99 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NormalizedKeyIndexTest {
+
+    private NormalizedKeyIndex index;
+
+    @Before
+    public void setUp() {
+        index = new NormalizedKeyIndex(CountryCodes.size() * 4);
+        for (int i = 0; i < CountryCodes.size(); i++) {
+            for (String name : CountryCodes.getNames(i)) {
+                index.put(name, i);
+            }
+        }
+    }
+
+    @Test
+    public void testIgnoresCaseAndSeparators() {
+        int unitedStates = CountryCodes.indexOfKey("United_States");
+        assertEquals(unitedStates, index.get("United_States"));
+        assertEquals(unitedStates, index.get("united states"));
+        assertEquals(unitedStates, index.get("  UNITED-STATES "));
+        assertEquals(unitedStates, index.get("U.S.A."));
+        assertEquals(unitedStates, index.get(new StringBuilder("us")));
+    }
+
+    @Test
+    public void testResolvesCodesAndAliases() {
+        int unitedKingdom = CountryCodes.indexOfKey("United_Kingdom");
+        assertEquals(unitedKingdom, index.get("UK"));
+        assertEquals(unitedKingdom, index.get("GB"));
+        assertEquals(unitedKingdom, index.get("gbr"));
+        assertEquals(unitedKingdom, index.get("Great Britain"));
+        assertEquals(CountryCodes.indexOfKey("Germany"), index.get("DE"));
+        assertEquals(CountryCodes.indexOfKey("Turkey"), index.get("Türkiye"));
+        assertEquals(CountryCodes.indexOfKey("Bosnia_Herzegovina"), index.get("Bosnia and Herzegovina"));
+    }
+
+    @Test
+    public void testMisses() {
+        assertEquals(NormalizedKeyIndex.NOT_FOUND, index.get(null));
+        assertEquals(NormalizedKeyIndex.NOT_FOUND, index.get(""));
+        assertEquals(NormalizedKeyIndex.NOT_FOUND, index.get("___"));
+        assertEquals(NormalizedKeyIndex.NOT_FOUND, index.get("Atlantis"));
+        assertEquals(NormalizedKeyIndex.NOT_FOUND, index.get("United"));
+        assertEquals(NormalizedKeyIndex.NOT_FOUND, index.get("United States X"));
+    }
+
+    @Test
+    public void testEveryNameIsUnambiguous() {
+        NormalizedKeyIndex names = new NormalizedKeyIndex(CountryCodes.size() * 4);
+        for (int i = 0; i < CountryCodes.size(); i++) {
+            for (String name : CountryCodes.getNames(i)) {
+                assertTrue("Clashing name: " + name, names.put(name, i) || names.get(name) == i);
+            }
+        }
+        assertFalse(names.put("United States", 0));
+        assertFalse(names.put("--", 0));
+    }
+
+    @Test
+    public void testLookupDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        String[] queries = {"United_States", "united kingdom", "UK", "deu", "Atlantis"};
+        int calls = 100000;
+        long checksum = 0;
+        for (int i = 0; i < calls; i++) {
+            checksum += index.get(queries[i % queries.length]);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            checksum += index.get(queries[i % queries.length]);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum != 0);
+        assertTrue("Allocated " + allocated + " bytes in " + calls + " lookups", allocated < calls);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ly2xxx.sos.util;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class SosTraceTest {
+
+    @Before
+    public void setUp() {
+        SosTrace.reset();
+    }
+
+    @Test
+    public void testOnlyFirstMilestoneCounts() throws Exception {
+        assertEquals(-1L, SosTrace.getMilestone(SosTrace.READY));
+
+        SosTrace.mark(SosTrace.READY);
+        long first = SosTrace.getMilestone(SosTrace.READY);
+        Thread.sleep(5);
+        SosTrace.mark(SosTrace.READY);
+
+        assertTrue(first >= 0);
+        assertEquals(first, SosTrace.getMilestone(SosTrace.READY));
+    }
+
+    @Test
+    public void testSectionsAreTotalled() throws Exception {
+        SosTrace.record(SosTrace.COUNTRY_LOOKUP, 2000000L);
+        SosTrace.record(SosTrace.COUNTRY_LOOKUP, 4000000L);
+        long start = SosTrace.beginSection(SosTrace.BUTTON_UPDATE);
+        SosTrace.endSection(SosTrace.BUTTON_UPDATE, start);
+
+        JSONObject sections = new JSONObject(SosTrace.toJson()).getJSONObject("sections");
+        JSONObject lookup = sections.getJSONObject(SosTrace.COUNTRY_LOOKUP);
+        assertEquals(2, lookup.getInt("count"));
+        assertEquals(4.0, lookup.getDouble("last_ms"), 1e-9);
+        assertEquals(3.0, lookup.getDouble("mean_ms"), 1e-9);
+        assertEquals(4.0, lookup.getDouble("max_ms"), 1e-9);
+        assertEquals(1, sections.getJSONObject(SosTrace.BUTTON_UPDATE).getInt("count"));
+    }
+
+    @Test
+    public void testDumpListsMilestonesAndSections() {
+        SosTrace.mark(SosTrace.FIRST_FIX);
+        SosTrace.record(SosTrace.TIME_TO_FIRST_FIX, 1500000000L);
+
+        StringWriter out = new StringWriter();
+        SosTrace.dump("  ", new PrintWriter(out));
+
+        assertTrue(out.toString().contains(SosTrace.FIRST_FIX));
+        assertTrue(out.toString().contains(SosTrace.TIME_TO_FIRST_FIX));
+        assertTrue(out.toString().contains("1500.00"));
+    }
+}